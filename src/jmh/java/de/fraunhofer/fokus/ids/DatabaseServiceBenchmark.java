@@ -0,0 +1,109 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.services.database.DatabaseService;
+import de.fraunhofer.fokus.ids.services.database.SqliteDatabaseServiceImpl;
+import de.fraunhofer.fokus.ids.services.database.SqliteEngine;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures the query/update pipeline of the database service against a temporary SQLite file migrated to the
+ * current schema through the SQLite engine used in production.
+ * Run with several threads (-t) to see the effect of concurrent writers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseServiceBenchmark {
+
+    private static final String SELECT = "SELECT url FROM accessinformation WHERE datasetid = ? AND distributionid = ?";
+    private static final String INSERT = "INSERT INTO accessinformation values(?,?,?,?,?)";
+
+    @Param({"10000"})
+    public int rows;
+
+    private Vertx vertx;
+    private File databaseFile;
+    private SqliteEngine engine;
+    private DatabaseService databaseService;
+
+    @Setup
+    public void setup() throws IOException {
+        vertx = Vertx.vertx();
+        databaseFile = Files.createTempFile("benchmark", ".db").toFile();
+        engine = new SqliteEngine(vertx, databaseFile.getAbsolutePath(), 4);
+        DatabaseServiceBenchmark.<Void>await(engine::start);
+        databaseService = await(handler -> new SqliteDatabaseServiceImpl(engine, handler));
+        DatabaseServiceBenchmark.<Void>await(handler -> new MigrationService(databaseService).migrate(handler));
+
+        List<JsonArray> params = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            params.add(row("dataset-" + i, "distribution-" + i));
+        }
+        DatabaseServiceBenchmark.<List<Integer>>await(handler -> databaseService.batchWithParams(INSERT, params, handler));
+    }
+
+    @TearDown
+    public void tearDown() {
+        DatabaseServiceBenchmark.<Void>await(engine::close);
+        DatabaseServiceBenchmark.<Void>await(vertx::close);
+        databaseFile.delete();
+    }
+
+    @Benchmark
+    public List<JsonObject> query() {
+        int i = ThreadLocalRandom.current().nextInt(rows);
+        return await(handler -> databaseService.query(SELECT, new JsonArray().add("dataset-" + i).add("distribution-" + i), handler));
+    }
+
+    @Benchmark
+    public String findAccessUrl() {
+        int i = ThreadLocalRandom.current().nextInt(rows);
+        return await(handler -> databaseService.findAccessUrl("dataset-" + i, "distribution-" + i, handler));
+    }
+
+    @Benchmark
+    public List<JsonObject> update() {
+        return await(handler -> databaseService.update(INSERT, row("dataset-" + UUID.randomUUID(), UUID.randomUUID().toString()), handler));
+    }
+
+    private static JsonArray row(String datasetId, String distributionId) {
+        return new JsonArray()
+                .add(Instant.now())
+                .add(Instant.now())
+                .add(datasetId)
+                .add(distributionId)
+                .add("https://zenodo.org/api/files/bucket/" + distributionId);
+    }
+
+    static <T> T await(Consumer<Handler<AsyncResult<T>>> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        operation.accept(ar -> {
+            if (ar.succeeded()) {
+                future.complete(ar.result());
+            } else {
+                future.completeExceptionally(ar.cause());
+            }
+        });
+        return future.join();
+    }
+}
@@ -0,0 +1,132 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.services.database.DatabaseService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ServiceBinder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static de.fraunhofer.fokus.ids.DatabaseServiceBenchmark.await;
+
+/**
+ * Isolates the overhead of calling the database service through the generated event bus proxy
+ * (codec, event bus hop, reply) by comparing it with a direct call of the same no-op implementation
+ * and with the in-process call via {@link LocalServices}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventBusProxyBenchmark {
+
+    private static final String ADDRESS = "benchmark.databaseservice";
+
+    @Param({"1", "100"})
+    public int resultRows;
+
+    private Vertx vertx;
+    private DatabaseService direct;
+    private DatabaseService proxy;
+    private DatabaseService local;
+    private JsonArray params;
+
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        direct = new NoOpDatabaseService(Collections.nCopies(resultRows, new JsonObject()
+                .put("url", "https://zenodo.org/api/files/bucket/file.csv")));
+        new ServiceBinder(vertx).setAddress(ADDRESS).register(DatabaseService.class, direct);
+        proxy = DatabaseService.createProxy(vertx, ADDRESS);
+        LocalServices.register(vertx, ADDRESS, direct);
+        local = LocalServices.lookup(vertx, DatabaseService.class, ADDRESS, DatabaseService::createProxy);
+        params = new JsonArray().add("dataset").add("distribution");
+    }
+
+    @TearDown
+    public void tearDown() {
+        DatabaseServiceBenchmark.<Void>await(vertx::close);
+    }
+
+    @Benchmark
+    public List<JsonObject> direct() {
+        return await(handler -> direct.query("SELECT url FROM accessinformation WHERE datasetid = ? AND distributionid = ?", params, handler));
+    }
+
+    @Benchmark
+    public List<JsonObject> local() {
+        return await(handler -> local.query("SELECT url FROM accessinformation WHERE datasetid = ? AND distributionid = ?", params, handler));
+    }
+
+    @Benchmark
+    public List<JsonObject> proxy() {
+        return await(handler -> proxy.query("SELECT url FROM accessinformation WHERE datasetid = ? AND distributionid = ?", params, handler));
+    }
+
+    private static class NoOpDatabaseService implements DatabaseService {
+
+        private final List<JsonObject> result;
+
+        private NoOpDatabaseService(List<JsonObject> result) {
+            this.result = result;
+        }
+
+        @Override
+        public DatabaseService query(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            resultHandler.handle(Future.succeededFuture(result));
+            return this;
+        }
+
+        @Override
+        public DatabaseService update(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+            resultHandler.handle(Future.succeededFuture(Collections.emptyList()));
+            return this;
+        }
+
+        @Override
+        public DatabaseService batchWithParams(String query, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler) {
+            resultHandler.handle(Future.succeededFuture(Collections.emptyList()));
+            return this;
+        }
+
+        @Override
+        public DatabaseService batch(List<String> statements, Handler<AsyncResult<List<Integer>>> resultHandler) {
+            resultHandler.handle(Future.succeededFuture(Collections.emptyList()));
+            return this;
+        }
+
+        @Override
+        public DatabaseService transaction(List<String> queries, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler) {
+            resultHandler.handle(Future.succeededFuture(Collections.emptyList()));
+            return this;
+        }
+    
+        @Override
+        public DatabaseService findAccessUrl(String datasetId, String distributionId, Handler<AsyncResult<String>> resultHandler) {
+            resultHandler.handle(Future.succeededFuture(result.isEmpty() ? null : result.get(0).getString("url")));
+            return this;
+        }
+
+        @Override
+        public DatabaseService insertAccessInformation(String datasetId, Map<String, String> distributionUrls, Handler<AsyncResult<Integer>> resultHandler) {
+            resultHandler.handle(Future.succeededFuture(distributionUrls.size()));
+            return this;
+        }
+
+        @Override
+        public DatabaseService deleteAccessInformation(String datasetId, Handler<AsyncResult<Integer>> resultHandler) {
+            resultHandler.handle(Future.succeededFuture(0));
+            return this;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.handler.BodyHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static de.fraunhofer.fokus.ids.DatabaseServiceBenchmark.await;
+
+/**
+ * Measures the throughput of streaming a distribution from an upstream server through {@link FileService}
+ * to a client. Upstream is a local stub serving the payload from memory, the access information is
+ * prefilled in the cache so that no database is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FileStreamingBenchmark {
+
+    private static final int UPSTREAM_PORT = 18091;
+    private static final int ADAPTER_PORT = 18092;
+
+    @Param({"65536", "16777216"})
+    public int fileSize;
+
+    private Vertx vertx;
+    private HttpClient client;
+    private Buffer request;
+
+    @Setup
+    public void setup() {
+        vertx = Vertx.vertx();
+        Buffer payload = Buffer.buffer(new byte[fileSize]);
+        HttpServer upstream = await(handler -> vertx.createHttpServer()
+                .requestHandler(upstreamRequest -> upstreamRequest.response()
+                        .putHeader("content-type", "application/octet-stream")
+                        .end(payload))
+                .listen(UPSTREAM_PORT, handler));
+
+        AccessInformationCache accessInformationCache = new AccessInformationCache(1, Long.MAX_VALUE);
+        accessInformationCache.put("dataset", "distribution", "http://localhost:" + UPSTREAM_PORT + "/file.bin");
+        // the local upstream is plain HTTP/1.1, an HTTP/2 client would try a clear text upgrade on every connection
+        JsonObject upstreamConfig = new JsonObject().put(ApplicationConfig.ENV_UPSTREAM_HTTP2, false);
+        FileService fileService = new FileService(vertx, new JsonObject(), vertx.createHttpClient(UpstreamClients.downloadOptions(upstreamConfig)), accessInformationCache);
+        Router router = Router.router(vertx);
+        router.route().handler(BodyHandler.create());
+        router.post("/resource").handler(routingContext ->
+                fileService.getFileStream(routingContext.getBodyAsJson(), routingContext));
+        HttpServer adapter = await(handler -> vertx.createHttpServer()
+                .requestHandler(router)
+                .listen(ADAPTER_PORT, handler));
+
+        client = vertx.createHttpClient(new HttpClientOptions().setMaxPoolSize(64));
+        request = new JsonObject()
+                .put("dataAssetId", "dataset")
+                .put("resourceId", "distribution")
+                .put("name", "file.bin")
+                .toBuffer();
+    }
+
+    @TearDown
+    public void tearDown() {
+        DatabaseServiceBenchmark.<Void>await(vertx::close);
+    }
+
+    @Benchmark
+    public long stream() {
+        CompletableFuture<Long> received = new CompletableFuture<>();
+        AtomicLong bytes = new AtomicLong();
+        client.request(HttpMethod.POST, ADAPTER_PORT, "localhost", "/resource", response -> {
+            response.handler(chunk -> bytes.addAndGet(chunk.length()));
+            response.exceptionHandler(received::completeExceptionally);
+            response.endHandler(v -> received.complete(bytes.get()));
+        }).exceptionHandler(received::completeExceptionally).end(request);
+        return received.join();
+    }
+}
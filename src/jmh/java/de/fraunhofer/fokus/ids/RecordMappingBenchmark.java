@@ -0,0 +1,86 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.persistence.entities.Dataset;
+import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
+import de.fraunhofer.fokus.ids.services.zenodo.ZenodoRecordParser;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the metadata part of creating a data asset: parsing a Zenodo record response and mapping it
+ * to a dataset with one distribution per file, as done by {@link DataAssetService#createDataAsset}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecordMappingBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int files;
+
+    private Buffer response;
+    private JsonObject record;
+
+    @Setup
+    public void setup() {
+        JsonArray fileEntries = new JsonArray();
+        for (int i = 0; i < files; i++) {
+            fileEntries.add(new JsonObject()
+                    .put("id", "f" + i)
+                    .put("key", "file-" + i + ".csv")
+                    .put("type", "csv")
+                    .put("size", 1024L * i)
+                    .put("checksum", "md5:" + Integer.toHexString(i))
+                    .put("links", new JsonObject()
+                            .put("self", "https://zenodo.org/api/files/bucket/file-" + i + ".csv")));
+        }
+        JsonArray creators = new JsonArray();
+        for (int i = 0; i < 5; i++) {
+            creators.add(new JsonObject().put("name", "Creator " + i).put("affiliation", "Fraunhofer FOKUS"));
+        }
+        JsonObject zenodoRecord = new JsonObject()
+                .put("id", 1234567)
+                .put("doi", "10.5281/zenodo.1234567")
+                .put("metadata", new JsonObject()
+                        .put("title", "Synthetic record")
+                        .put("description", "Synthetic record with " + files + " files")
+                        .put("version", "1.0")
+                        .put("doi", "10.5281/zenodo.1234567")
+                        .put("access_right", "open")
+                        .put("keywords", new JsonArray().add("benchmark").add("zenodo"))
+                        .put("license", new JsonObject().put("id", "CC-BY-4.0"))
+                        .put("creators", creators))
+                .put("files", fileEntries);
+        response = Buffer.buffer(zenodoRecord.encode());
+        record = parse();
+    }
+
+    @Benchmark
+    public JsonObject parse() {
+        ZenodoRecordParser parser = new ZenodoRecordParser();
+        parser.end(response);
+        return parser.result().result();
+    }
+
+    @Benchmark
+    public JsonObject map() {
+        Dataset dataset = DataAssetService.buildDataset(record);
+        Set<Distribution> distributions = new HashSet<>();
+        for (Object file : record.getJsonArray("files")) {
+            JsonObject zenodoDistribution = (JsonObject) file;
+            distributions.add(DataAssetService.buildDistributionMetadata(zenodoDistribution,
+                    zenodoDistribution.getJsonObject("links").getString("self"), false));
+        }
+        dataset.setDistributions(distributions);
+        return JsonObject.mapFrom(dataset);
+    }
+}
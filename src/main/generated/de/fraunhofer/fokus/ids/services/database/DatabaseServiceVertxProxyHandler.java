@@ -44,6 +44,7 @@ import io.vertx.serviceproxy.HelperUtils;
 import io.vertx.core.json.JsonArray;
 import de.fraunhofer.fokus.ids.services.database.DatabaseService;
 import java.util.List;
+import java.util.Map;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
@@ -129,6 +130,40 @@ public class DatabaseServiceVertxProxyHandler extends ProxyHandler {
                         HelperUtils.createListHandler(msg));
           break;
         }
+        case "batchWithParams": {
+          service.batchWithParams((java.lang.String)json.getValue("query"),
+                        HelperUtils.convertList(json.getJsonArray("params").getList()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
+        case "batch": {
+          service.batch(HelperUtils.convertList(json.getJsonArray("statements").getList()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
+        case "transaction": {
+          service.transaction(HelperUtils.convertList(json.getJsonArray("queries").getList()),
+                        HelperUtils.convertList(json.getJsonArray("params").getList()),
+                        HelperUtils.createListHandler(msg));
+          break;
+        }
+        case "findAccessUrl": {
+          service.findAccessUrl((java.lang.String)json.getValue("datasetId"),
+                        (java.lang.String)json.getValue("distributionId"),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
+        case "insertAccessInformation": {
+          service.insertAccessInformation((java.lang.String)json.getValue("datasetId"),
+                        HelperUtils.convertMap(json.getJsonObject("distributionUrls").getMap()),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
+        case "deleteAccessInformation": {
+          service.deleteAccessInformation((java.lang.String)json.getValue("datasetId"),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
         default: throw new IllegalStateException("Invalid action: " + action);
       }
     } catch (Throwable t) {
@@ -84,4 +84,27 @@ public class ZenodoServiceVertxEBProxy implements ZenodoService {
     });
     return this;
   }
+  @Override
+  public  ZenodoService search(JsonObject dataSource, JsonObject search, int page, String accessToken, Handler<AsyncResult<JsonObject>> resultHandler){
+    if (closed) {
+      resultHandler.handle(Future.failedFuture(new IllegalStateException("Proxy is closed")));
+      return this;
+    }
+    JsonObject _json = new JsonObject();
+    _json.put("dataSource", dataSource);
+    _json.put("search", search);
+    _json.put("page", page);
+    _json.put("accessToken", accessToken);
+
+    DeliveryOptions _deliveryOptions = (_options != null) ? new DeliveryOptions(_options) : new DeliveryOptions();
+    _deliveryOptions.addHeader("action", "search");
+    _vertx.eventBus().<JsonObject>request(_address, _json, _deliveryOptions, res -> {
+      if (res.failed()) {
+        resultHandler.handle(Future.failedFuture(res.cause()));
+      } else {
+        resultHandler.handle(Future.succeededFuture(res.result().body()));
+      }
+    });
+    return this;
+  }
 }
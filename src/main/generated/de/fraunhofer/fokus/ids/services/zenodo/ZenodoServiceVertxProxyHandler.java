@@ -122,6 +122,14 @@ public class ZenodoServiceVertxProxyHandler extends ProxyHandler {
                         HelperUtils.createHandler(msg));
           break;
         }
+        case "search": {
+          service.search((io.vertx.core.json.JsonObject)json.getValue("dataSource"),
+                        (io.vertx.core.json.JsonObject)json.getValue("search"),
+                        json.getValue("page") == null ? null : (json.getLong("page").intValue()),
+                        (java.lang.String)json.getValue("accessToken"),
+                        HelperUtils.createHandler(msg));
+          break;
+        }
         default: throw new IllegalStateException("Invalid action: " + action);
       }
     } catch (Throwable t) {
@@ -0,0 +1,103 @@
+package de.fraunhofer.fokus.ids;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Bounded in-memory cache of the upstream URLs stored in the accessinformation table,
+ * keyed by (datasetid, distributionid). Entries expire after a fixed time to live
+ * and the least recently used entry is dropped once the cache is full.
+ */
+public class AccessInformationCache {
+
+    private final int maxEntries;
+    private final long timeToLive;
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /**
+     * @param maxEntries maximum number of cached URLs
+     * @param timeToLive time to live of an entry in milliseconds, Long.MAX_VALUE for entries that never expire
+     */
+    public AccessInformationCache(int maxEntries, long timeToLive) {
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > AccessInformationCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the cached URL or null if it is unknown or expired
+     */
+    public synchronized String get(String datasetId, String distributionId) {
+        Key key = new Key(datasetId, distributionId);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.url;
+    }
+
+    public synchronized void put(String datasetId, String distributionId, String url) {
+        if (maxEntries > 0) {
+            long now = System.currentTimeMillis();
+            // saturates, so that a very large time to live means the entry never expires
+            long expiresAt = timeToLive > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeToLive;
+            entries.put(new Key(datasetId, distributionId), new Entry(url, expiresAt));
+        }
+    }
+
+    /**
+     * Removes all distributions of the given dataset.
+     */
+    public synchronized void invalidate(String datasetId) {
+        Iterator<Key> iterator = entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (Objects.equals(iterator.next().datasetId, datasetId)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String datasetId;
+        private final String distributionId;
+
+        private Key(String datasetId, String distributionId) {
+            this.datasetId = datasetId;
+            this.distributionId = distributionId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return Objects.equals(datasetId, key.datasetId) && Objects.equals(distributionId, key.distributionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(datasetId, distributionId);
+        }
+    }
+
+    private static final class Entry {
+        private final String url;
+        private final long expiresAt;
+
+        private Entry(String url, long expiresAt) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
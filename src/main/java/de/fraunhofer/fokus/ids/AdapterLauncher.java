@@ -0,0 +1,63 @@
+package de.fraunhofer.fokus.ids;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.vertx.core.Launcher;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.dns.AddressResolverOptions;
+import io.vertx.micrometer.Label;
+import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.micrometer.VertxPrometheusOptions;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.EnumSet;
+
+/**
+ * Launcher enabling the Vert.x Micrometer metrics with an in-process Prometheus registry before Vert.x is
+ * started, which is the only point at which metrics can be enabled. The registry is scraped via /metrics.
+ */
+public class AdapterLauncher extends Launcher {
+
+    public static void main(String[] args) {
+        new AdapterLauncher().dispatch(args);
+    }
+
+    @Override
+    public void beforeStartingVertx(VertxOptions options) {
+        // upstream hosts are resolved by the Vert.x resolver, which caches them at least for the configured time
+        String dnsCacheTtl = System.getenv(ApplicationConfig.ENV_DNS_CACHE_TTL);
+        options.setAddressResolverOptions(new AddressResolverOptions()
+                .setCacheMinTimeToLive(dnsCacheTtl != null ? Integer.parseInt(dnsCacheTtl) : ApplicationConfig.DEFAULT_DNS_CACHE_TTL));
+        // Vert.x 3.9 accepts h2c on every cleartext server unless this property is set before the server is created,
+        // the ALPN versions of the server options only apply to TLS
+        if ("false".equalsIgnoreCase(System.getenv(ApplicationConfig.ENV_HTTP_SERVER_HTTP2))) {
+            System.setProperty("vertx.disableH2c", "true");
+        }
+        options.setMetricsOptions(new MicrometerMetricsOptions()
+                .setPrometheusOptions(new VertxPrometheusOptions().setEnabled(true))
+                .setLabels(EnumSet.of(Label.HTTP_METHOD, Label.HTTP_CODE, Label.REMOTE, Label.EB_ADDRESS, Label.EB_SIDE,
+                        Label.EB_FAILURE, Label.POOL_TYPE, Label.POOL_NAME))
+                .setJvmMetricsEnabled(true)
+                .setEnabled(true));
+    }
+
+    @Override
+    public void afterStartingVertx(Vertx vertx) {
+        // latency histograms for the HTTP server and client meters of Vert.x, the adapter's own timers publish them anyway
+        BackendRegistries.getDefaultNow().config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (id.getType() == Meter.Type.TIMER && id.getName().startsWith("vertx.http")) {
+                    return DistributionStatisticConfig.builder()
+                            .percentilesHistogram(true)
+                            .build()
+                            .merge(config);
+                }
+                return config;
+            }
+        });
+        AdapterMetrics.measureEventBus(vertx);
+    }
+}
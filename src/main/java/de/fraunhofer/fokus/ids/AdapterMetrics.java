@@ -0,0 +1,142 @@
+package de.fraunhofer.fokus.ids;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Meters recorded by the adapter itself, on top of the Vert.x internals (HTTP server and client, event bus,
+ * pools) measured by the Vert.x Micrometer integration enabled in {@link AdapterLauncher}. All meters are
+ * registered in the in-process Prometheus registry exposed on /metrics. If metrics are disabled, e.g. when
+ * the verticle is deployed by a plain Vert.x launcher, the meters are recorded into a no-op registry.
+ */
+public final class AdapterMetrics {
+
+    private static final String ROUTE_PATH = "metrics.route.path";
+
+    public static final String ROUTE_REQUESTS = "adapter.http.route.requests";
+    public static final String ZENODO_REQUESTS = "adapter.zenodo.requests";
+    public static final String UPSTREAM_RETRIES = "adapter.upstream.retries";
+    public static final String UPSTREAM_CIRCUIT_REJECTED = "adapter.upstream.circuit.rejected";
+    public static final String RECORD_SYNC_CHANGES = "adapter.record.sync.changes";
+    public static final String FILE_STREAMED_BYTES = "adapter.file.streamed.bytes";
+    public static final String FILE_TRANSFER_THROUGHPUT = "adapter.file.transfer.throughput";
+    public static final String FILE_TRANSFER_STALLS = "adapter.file.transfer.stalls";
+    public static final String FILE_TRANSFER_ABORTS = "adapter.file.transfer.aborts";
+    public static final String FILE_DOWNLOADS_COALESCED = "adapter.file.downloads.coalesced";
+    public static final String FILE_DOWNLOAD_FALLBACKS = "adapter.file.download.fallbacks";
+    public static final String PREFETCH_FILES = "adapter.prefetch.files";
+    public static final String PREFETCHED_BYTES = "adapter.prefetch.bytes";
+    public static final String ARCHIVE_ENTRIES = "adapter.archive.entries";
+    public static final String ADMISSION_WAIT = "adapter.admission.wait";
+    public static final String ADMISSION_REJECTED = "adapter.admission.rejected";
+    public static final String EVENT_BUS_ROUND_TRIP = "adapter.eventbus.roundtrip";
+    public static final String DB_CONNECTION_WAIT = "adapter.db.connection.wait";
+    public static final String DB_QUERY = "adapter.db.query";
+    public static final String DB_WRITE_GROUP_SIZE = "adapter.db.write.group.size";
+
+    private static final MeterRegistry NOOP_REGISTRY = new CompositeMeterRegistry();
+    private static final long PENDING_REPLY_TIMEOUT = TimeUnit.MINUTES.toNanos(1);
+
+    private AdapterMetrics() {
+    }
+
+    public static MeterRegistry registry() {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        return registry != null ? registry : NOOP_REGISTRY;
+    }
+
+    /**
+     * @param tags alternating tag keys and values
+     * @return timer publishing a histogram so that latency quantiles can be aggregated in Prometheus
+     */
+    public static Timer timer(String name, String... tags) {
+        return Timer.builder(name)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(registry());
+    }
+
+    /**
+     * Records the latency of every request by route path (e.g. "/delete/:id") and status code, which keeps
+     * the number of series bounded in contrast to the raw request path. The route path is stored by
+     * {@link #routePath(RoutingContext)}, requests that never reach a route handling them, e.g. for unknown
+     * paths, are recorded as "unmatched".
+     */
+    public static Handler<RoutingContext> routeTimer() {
+        return routingContext -> {
+            long start = System.nanoTime();
+            routingContext.addBodyEndHandler(v -> {
+                String route = routingContext.get(ROUTE_PATH);
+                timer(ROUTE_REQUESTS,
+                        "route", route != null ? route : "unmatched",
+                        "method", routingContext.request().rawMethod(),
+                        "status", String.valueOf(routingContext.response().getStatusCode()))
+                        .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            });
+            routingContext.next();
+        };
+    }
+
+    /**
+     * First handler of every route, stores the path of the route for {@link #routeTimer()}. The current route is
+     * only known while its handlers run, not in the end handlers of the request.
+     */
+    public static void routePath(RoutingContext routingContext) {
+        routingContext.put(ROUTE_PATH, routingContext.currentRoute().getPath());
+        routingContext.next();
+    }
+
+    /**
+     * Measures the round trip of service proxy calls, from sending the request to receiving the reply, by
+     * service address and action. Requests are matched with their reply via the reply address.
+     */
+    public static void measureEventBus(Vertx vertx) {
+        Map<String, PendingReply> pendingReplies = new ConcurrentHashMap<>();
+        vertx.eventBus().addOutboundInterceptor(deliveryContext -> {
+            Message<?> message = deliveryContext.message();
+            String action = message.headers().get("action");
+            if (action != null && message.replyAddress() != null) {
+                pendingReplies.put(message.replyAddress(), new PendingReply(message.address(), action));
+            }
+            deliveryContext.next();
+        });
+        vertx.eventBus().addInboundInterceptor(deliveryContext -> {
+            PendingReply pendingReply = pendingReplies.remove(deliveryContext.message().address());
+            if (pendingReply != null) {
+                timer(EVENT_BUS_ROUND_TRIP,
+                        "address", pendingReply.address,
+                        "action", pendingReply.action,
+                        "failure", String.valueOf(deliveryContext.message().body() instanceof ReplyException))
+                        .record(System.nanoTime() - pendingReply.start, TimeUnit.NANOSECONDS);
+            }
+            deliveryContext.next();
+        });
+        // requests that never receive a reply (e.g. no handler registered) must not pile up
+        vertx.setPeriodic(TimeUnit.NANOSECONDS.toMillis(PENDING_REPLY_TIMEOUT), timer -> {
+            long now = System.nanoTime();
+            pendingReplies.values().removeIf(pendingReply -> now - pendingReply.start > PENDING_REPLY_TIMEOUT);
+        });
+    }
+
+    private static final class PendingReply {
+        private final String address;
+        private final String action;
+        private final long start = System.nanoTime();
+
+        private PendingReply(String address, String action) {
+            this.address = address;
+            this.action = action;
+        }
+    }
+}
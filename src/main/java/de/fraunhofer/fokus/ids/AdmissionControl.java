@@ -0,0 +1,249 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.RoutingContext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control for the file routes, shared by all HTTP server instances. A request is admitted while fewer
+ * than the maximum number of streams are running, globally and for its consumer, otherwise it waits in a bounded
+ * FIFO queue for at most the queue timeout. Requests that cannot be queued or time out are rejected with
+ * 429 Too Many Requests if their consumer is at its limit and with 503 Service Unavailable otherwise, both with a
+ * Retry-After header. Admitted requests of a consumer share its {@link TokenBucket} if a bandwidth is configured.
+ * <p>
+ * Consumers are identified by the remote host, or by a request header set by the connector if one is configured.
+ * The state of idle consumers is dropped once their bucket is full again, so that sequential requests do not
+ * get a fresh burst each.
+ */
+public class AdmissionControl implements Handler<RoutingContext> {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(AdmissionControl.class.getName());
+
+    private static final String BANDWIDTH = "admission.bandwidth";
+    private static final long IDLE_CONSUMER_SWEEP_INTERVAL = 1000;
+
+    private final Vertx vertx;
+    private final int maxStreams;
+    private final int maxStreamsPerConsumer;
+    private final int queueSize;
+    private final long queueTimeout;
+    private final long consumerBandwidth;
+    private final String retryAfter;
+    private final String consumerHeader;
+    private final Map<String, Consumer> consumers = new HashMap<>();
+    private final Deque<Waiter> queue = new ArrayDeque<>();
+    private int active;
+
+    public AdmissionControl(Vertx vertx, JsonObject config) {
+        this.vertx = vertx;
+        this.maxStreams = config.getInteger(ApplicationConfig.ENV_ADMISSION_MAX_STREAMS, ApplicationConfig.DEFAULT_ADMISSION_MAX_STREAMS);
+        this.maxStreamsPerConsumer = config.getInteger(ApplicationConfig.ENV_ADMISSION_MAX_STREAMS_PER_CONSUMER, ApplicationConfig.DEFAULT_ADMISSION_MAX_STREAMS_PER_CONSUMER);
+        this.queueSize = config.getInteger(ApplicationConfig.ENV_ADMISSION_QUEUE_SIZE, ApplicationConfig.DEFAULT_ADMISSION_QUEUE_SIZE);
+        this.queueTimeout = config.getLong(ApplicationConfig.ENV_ADMISSION_QUEUE_TIMEOUT, ApplicationConfig.DEFAULT_ADMISSION_QUEUE_TIMEOUT);
+        this.consumerBandwidth = config.getLong(ApplicationConfig.ENV_ADMISSION_CONSUMER_BANDWIDTH, ApplicationConfig.DEFAULT_ADMISSION_CONSUMER_BANDWIDTH);
+        this.retryAfter = String.valueOf(config.getInteger(ApplicationConfig.ENV_ADMISSION_RETRY_AFTER, ApplicationConfig.DEFAULT_ADMISSION_RETRY_AFTER));
+        this.consumerHeader = config.getString(ApplicationConfig.ENV_ADMISSION_CONSUMER_HEADER, ApplicationConfig.DEFAULT_ADMISSION_CONSUMER_HEADER);
+        if (consumerBandwidth > 0) {
+            vertx.setPeriodic(IDLE_CONSUMER_SWEEP_INTERVAL, timer -> removeIdle());
+        }
+    }
+
+    /**
+     * @return bandwidth limit of the consumer of an admitted request or null if the bandwidth is not limited
+     */
+    public static TokenBucket bandwidth(RoutingContext routingContext) {
+        return routingContext.get(BANDWIDTH);
+    }
+
+    @Override
+    public void handle(RoutingContext routingContext) {
+        String consumerId = consumerId(routingContext);
+        Waiter waiter = new Waiter(consumerId, routingContext);
+        String rejection;
+        boolean admitted;
+        synchronized (this) {
+            Consumer consumer = consumers.computeIfAbsent(consumerId, id -> new Consumer(consumerBandwidth > 0 ? new TokenBucket(consumerBandwidth) : null));
+            if (queue.isEmpty() && active < maxStreams && consumer.active < maxStreamsPerConsumer) {
+                start(waiter, consumer);
+                rejection = null;
+            } else if (consumer.active + consumer.queued >= maxStreamsPerConsumer) {
+                rejection = "consumer_limit";
+            } else if (queue.size() >= queueSize) {
+                rejection = "queue_full";
+            } else {
+                consumer.queued++;
+                queue.add(waiter);
+                rejection = null;
+            }
+            if (rejection != null) {
+                removeIfIdle(consumerId, consumer);
+            }
+            // read under the lock, a queued request may be admitted by another event loop right after it
+            admitted = waiter.admitted;
+        }
+
+        if (rejection != null) {
+            reject(routingContext, rejection);
+            return;
+        }
+        // released when the response ends or the connection is closed, also while the request is still queued
+        routingContext.addEndHandler(end -> release(waiter));
+        if (admitted) {
+            admitted(waiter);
+        } else {
+            waiter.timer = vertx.setTimer(queueTimeout, timer -> timeout(waiter));
+        }
+    }
+
+    private String consumerId(RoutingContext routingContext) {
+        // the header can be set by any client, so it is only trusted if configured explicitly
+        String consumerId = consumerHeader.isEmpty() ? null : routingContext.request().getHeader(consumerHeader);
+        return consumerId != null ? consumerId : routingContext.request().remoteAddress().host();
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private void start(Waiter waiter, Consumer consumer) {
+        active++;
+        consumer.active++;
+        waiter.admitted = true;
+        waiter.bandwidth = consumer.bandwidth;
+    }
+
+    private void admitted(Waiter waiter) {
+        if (waiter.routingContext.response().closed()) {
+            return;
+        }
+        AdapterMetrics.timer(AdapterMetrics.ADMISSION_WAIT).record(System.nanoTime() - waiter.queued, TimeUnit.NANOSECONDS);
+        if (waiter.bandwidth != null) {
+            waiter.routingContext.put(BANDWIDTH, waiter.bandwidth);
+        }
+        waiter.routingContext.next();
+    }
+
+    private void timeout(Waiter waiter) {
+        synchronized (this) {
+            if (!queue.remove(waiter)) {
+                return;
+            }
+            Consumer consumer = consumers.get(waiter.consumerId);
+            consumer.queued--;
+            removeIfIdle(waiter.consumerId, consumer);
+        }
+        reject(waiter.routingContext, "queue_timeout");
+    }
+
+    private void release(Waiter waiter) {
+        List<Waiter> next;
+        synchronized (this) {
+            Consumer consumer = consumers.get(waiter.consumerId);
+            if (waiter.released) {
+                return;
+            } else if (waiter.admitted) {
+                waiter.released = true;
+                active--;
+                consumer.active--;
+            } else if (queue.remove(waiter)) {
+                consumer.queued--;
+            } else {
+                return;
+            }
+            removeIfIdle(waiter.consumerId, consumer);
+            next = next();
+        }
+        for (Waiter admitted : next) {
+            admitted.context.runOnContext(v -> {
+                vertx.cancelTimer(admitted.timer);
+                admitted(admitted);
+            });
+        }
+    }
+
+    /**
+     * Takes the queued requests, in FIFO order, that can be admitted. Must be called while holding the lock.
+     */
+    private List<Waiter> next() {
+        List<Waiter> next = new ArrayList<>();
+        Iterator<Waiter> iterator = queue.iterator();
+        while (active < maxStreams && iterator.hasNext()) {
+            Waiter waiter = iterator.next();
+            Consumer consumer = consumers.get(waiter.consumerId);
+            if (consumer.active < maxStreamsPerConsumer) {
+                iterator.remove();
+                consumer.queued--;
+                start(waiter, consumer);
+                next.add(waiter);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Must be called while holding the lock.
+     */
+    private void removeIfIdle(String consumerId, Consumer consumer) {
+        if (consumer.isIdle()) {
+            consumers.remove(consumerId);
+        }
+    }
+
+    /**
+     * Drops the idle consumers whose bucket was still refilling when their last request ended.
+     */
+    private synchronized void removeIdle() {
+        consumers.values().removeIf(Consumer::isIdle);
+    }
+
+    private void reject(RoutingContext routingContext, String reason) {
+        LOGGER.info("Request of " + consumerId(routingContext) + " rejected: " + reason);
+        AdapterMetrics.registry().counter(AdapterMetrics.ADMISSION_REJECTED, "reason", reason).increment();
+        routingContext.response()
+                .setStatusCode("consumer_limit".equals(reason) ? 429 : 503)
+                .putHeader("Retry-After", retryAfter)
+                .end();
+    }
+
+    private static final class Consumer {
+        private final TokenBucket bandwidth;
+        private int active;
+        private int queued;
+
+        private Consumer(TokenBucket bandwidth) {
+            this.bandwidth = bandwidth;
+        }
+
+        private boolean isIdle() {
+            return active == 0 && queued == 0 && (bandwidth == null || bandwidth.isFull());
+        }
+    }
+
+    private static final class Waiter {
+        private final String consumerId;
+        private final RoutingContext routingContext;
+        private final Context context = Vertx.currentContext();
+        private final long queued = System.nanoTime();
+        private TokenBucket bandwidth;
+        private long timer = -1;
+        private boolean admitted;
+        private boolean released;
+
+        private Waiter(String consumerId, RoutingContext routingContext) {
+            this.consumerId = consumerId;
+            this.routingContext = routingContext;
+        }
+    }
+}
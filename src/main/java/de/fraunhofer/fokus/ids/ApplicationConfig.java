@@ -7,9 +7,36 @@ public class ApplicationConfig {
     public static final String DATABASE_SERVICE = ROUTE_PREFIX + "databaseService";
     public static final String ZENODO_SERVICE = ROUTE_PREFIX + "zenodoService";
 
+    public static final String DB_BACKEND_SQLITE = "sqlite";
+    public static final String DB_BACKEND_POSTGRES = "postgres";
+
+    public static final String ENV_DB_BACKEND = "DB_BACKEND";
+    public static final String DEFAULT_DB_BACKEND = DB_BACKEND_SQLITE;
+
+    public static final String ENV_PG_HOST = "PG_HOST";
+    public static final String DEFAULT_PG_HOST = "localhost";
+
+    public static final String ENV_PG_PORT = "PG_PORT";
+    public static final Integer DEFAULT_PG_PORT = 5432;
+
+    public static final String ENV_PG_DATABASE = "PG_DATABASE";
+    public static final String DEFAULT_PG_DATABASE = "zenodo-adapter";
+
+    public static final String ENV_PG_USER = "PG_USER";
+    public static final String DEFAULT_PG_USER = "postgres";
+
+    public static final String ENV_PG_PASSWORD = "PG_PASSWORD";
+    public static final String DEFAULT_PG_PASSWORD = "";
+
+    public static final String ENV_PG_POOL_SIZE = "PG_POOL_SIZE";
+    public static final Integer DEFAULT_PG_POOL_SIZE = 8;
+
     public static final String ENV_SQLITE_DB_NAME = "SQLITE_DB_NAME";
     public static final String DEFAULT_SQLITE_DB_NAME = "zenodo-adapter";
 
+    public static final String ENV_SQLITE_READ_CONNECTIONS = "SQLITE_READ_CONNECTIONS";
+    public static final Integer DEFAULT_SQLITE_READ_CONNECTIONS = 4;
+
     public static final String ENV_ROUTE_ALIAS = "ROUTE_ALIAS";
     public static final String DEFAULT_ROUTE_ALIAS = "localhost";
     
@@ -22,4 +49,160 @@ public class ApplicationConfig {
     public static final Integer DEFAULT_MANAGER_PORT = 8080;
     
     public static final Integer DEFAULT_ZENODO_PORT = 8070;
-}
\ No newline at end of file
+
+    public static final String ENV_FILE_CACHE_DIR = "FILE_CACHE_DIR";
+    public static final String DEFAULT_FILE_CACHE_DIR = "/ids/repo/";
+
+    public static final String ENV_FILE_CACHE_MAX_SIZE = "FILE_CACHE_MAX_SIZE";
+    public static final Long DEFAULT_FILE_CACHE_MAX_SIZE = 10L * 1024 * 1024 * 1024;
+
+    public static final String ENV_ACCESS_INFORMATION_CACHE_SIZE = "ACCESS_INFORMATION_CACHE_SIZE";
+    public static final Integer DEFAULT_ACCESS_INFORMATION_CACHE_SIZE = 10000;
+
+    public static final String ENV_ACCESS_INFORMATION_CACHE_TTL = "ACCESS_INFORMATION_CACHE_TTL";
+    public static final Long DEFAULT_ACCESS_INFORMATION_CACHE_TTL = 600000L;
+
+    public static final String ENV_FILE_WRITE_QUEUE_MAX_SIZE = "FILE_WRITE_QUEUE_MAX_SIZE";
+    public static final Integer DEFAULT_FILE_WRITE_QUEUE_MAX_SIZE = 256 * 1024;
+
+    public static final String ENV_FILE_TRANSFER_IDLE_TIMEOUT = "FILE_TRANSFER_IDLE_TIMEOUT";
+    public static final Long DEFAULT_FILE_TRANSFER_IDLE_TIMEOUT = 60000L;
+
+    public static final String ENV_FILE_PROBE_CONCURRENCY = "FILE_PROBE_CONCURRENCY";
+    public static final Integer DEFAULT_FILE_PROBE_CONCURRENCY = 8;
+
+    public static final String ENV_SKIP_FILE_PROBE = "SKIP_FILE_PROBE";
+    public static final Boolean DEFAULT_SKIP_FILE_PROBE = false;
+
+    public static final String ENV_ZENODO_RECORD_CACHE_SIZE = "ZENODO_RECORD_CACHE_SIZE";
+    public static final Integer DEFAULT_ZENODO_RECORD_CACHE_SIZE = 1000;
+
+    public static final String ENV_BATCH_CREATE_CONCURRENCY = "BATCH_CREATE_CONCURRENCY";
+    public static final Integer DEFAULT_BATCH_CREATE_CONCURRENCY = 4;
+
+    public static final String ENV_LOCAL_SERVICE_CALLS = "LOCAL_SERVICE_CALLS";
+    public static final Boolean DEFAULT_LOCAL_SERVICE_CALLS = true;
+
+    public static final String ENV_UPSTREAM_MAX_POOL_SIZE = "UPSTREAM_MAX_POOL_SIZE";
+    public static final Integer DEFAULT_UPSTREAM_MAX_POOL_SIZE = 32;
+
+    public static final String ENV_UPSTREAM_HTTP2 = "UPSTREAM_HTTP2";
+    public static final Boolean DEFAULT_UPSTREAM_HTTP2 = true;
+
+    public static final String ENV_UPSTREAM_HTTP2_MAX_POOL_SIZE = "UPSTREAM_HTTP2_MAX_POOL_SIZE";
+    public static final Integer DEFAULT_UPSTREAM_HTTP2_MAX_POOL_SIZE = 4;
+
+    public static final String ENV_UPSTREAM_CONNECT_TIMEOUT = "UPSTREAM_CONNECT_TIMEOUT";
+    public static final Integer DEFAULT_UPSTREAM_CONNECT_TIMEOUT = 5000;
+
+    public static final String ENV_UPSTREAM_IDLE_TIMEOUT = "UPSTREAM_IDLE_TIMEOUT";
+    public static final Integer DEFAULT_UPSTREAM_IDLE_TIMEOUT = 60;
+
+    public static final String ENV_UPSTREAM_RETRY_MAX_ATTEMPTS = "UPSTREAM_RETRY_MAX_ATTEMPTS";
+    public static final Integer DEFAULT_UPSTREAM_RETRY_MAX_ATTEMPTS = 3;
+
+    public static final String ENV_UPSTREAM_RETRY_BASE_DELAY = "UPSTREAM_RETRY_BASE_DELAY";
+    public static final Long DEFAULT_UPSTREAM_RETRY_BASE_DELAY = 200L;
+
+    public static final String ENV_UPSTREAM_RETRY_MAX_DELAY = "UPSTREAM_RETRY_MAX_DELAY";
+    public static final Long DEFAULT_UPSTREAM_RETRY_MAX_DELAY = 10000L;
+
+    public static final String ENV_UPSTREAM_CIRCUIT_FAILURE_THRESHOLD = "UPSTREAM_CIRCUIT_FAILURE_THRESHOLD";
+    public static final Integer DEFAULT_UPSTREAM_CIRCUIT_FAILURE_THRESHOLD = 5;
+
+    public static final String ENV_UPSTREAM_CIRCUIT_OPEN_TIME = "UPSTREAM_CIRCUIT_OPEN_TIME";
+    public static final Long DEFAULT_UPSTREAM_CIRCUIT_OPEN_TIME = 30000L;
+
+    public static final String ENV_DNS_CACHE_TTL = "DNS_CACHE_TTL";
+    public static final Integer DEFAULT_DNS_CACHE_TTL = 300;
+
+    public static final String ENV_HTTP_SERVER_INSTANCES = "HTTP_SERVER_INSTANCES";
+    public static final Integer DEFAULT_HTTP_SERVER_INSTANCES = Runtime.getRuntime().availableProcessors();
+
+    public static final String ENV_ADMISSION_MAX_STREAMS = "ADMISSION_MAX_STREAMS";
+    public static final Integer DEFAULT_ADMISSION_MAX_STREAMS = 64;
+
+    public static final String ENV_ADMISSION_MAX_STREAMS_PER_CONSUMER = "ADMISSION_MAX_STREAMS_PER_CONSUMER";
+    public static final Integer DEFAULT_ADMISSION_MAX_STREAMS_PER_CONSUMER = 8;
+
+    public static final String ENV_ADMISSION_QUEUE_SIZE = "ADMISSION_QUEUE_SIZE";
+    public static final Integer DEFAULT_ADMISSION_QUEUE_SIZE = 128;
+
+    public static final String ENV_ADMISSION_QUEUE_TIMEOUT = "ADMISSION_QUEUE_TIMEOUT";
+    public static final Long DEFAULT_ADMISSION_QUEUE_TIMEOUT = 10000L;
+
+    public static final String ENV_ADMISSION_CONSUMER_BANDWIDTH = "ADMISSION_CONSUMER_BANDWIDTH";
+    public static final Long DEFAULT_ADMISSION_CONSUMER_BANDWIDTH = 0L;
+
+    public static final String ENV_ADMISSION_RETRY_AFTER = "ADMISSION_RETRY_AFTER";
+    public static final Integer DEFAULT_ADMISSION_RETRY_AFTER = 5;
+
+    public static final String ENV_ADMISSION_CONSUMER_HEADER = "ADMISSION_CONSUMER_HEADER";
+    public static final String DEFAULT_ADMISSION_CONSUMER_HEADER = "";
+
+    public static final String ENV_RECORD_SYNC_INTERVAL = "RECORD_SYNC_INTERVAL";
+    public static final Long DEFAULT_RECORD_SYNC_INTERVAL = 3600000L;
+
+    public static final String ENV_RECORD_SYNC_CONCURRENCY = "RECORD_SYNC_CONCURRENCY";
+    public static final Integer DEFAULT_RECORD_SYNC_CONCURRENCY = 4;
+
+    public static final String ENV_RECORD_SYNC_BATCH_SIZE = "RECORD_SYNC_BATCH_SIZE";
+    public static final Integer DEFAULT_RECORD_SYNC_BATCH_SIZE = 50;
+
+    public static final String ENV_RECORD_SYNC_ACCESS_TOKEN = "RECORD_SYNC_ACCESS_TOKEN";
+    public static final String DEFAULT_RECORD_SYNC_ACCESS_TOKEN = "";
+
+    public static final String ENV_DATA_ASSET_FORM_SCHEMA_FILE = "DATA_ASSET_FORM_SCHEMA_FILE";
+    public static final String DEFAULT_DATA_ASSET_FORM_SCHEMA_FILE = "";
+
+    public static final String ENV_DATA_SOURCE_FORM_SCHEMA_FILE = "DATA_SOURCE_FORM_SCHEMA_FILE";
+    public static final String DEFAULT_DATA_SOURCE_FORM_SCHEMA_FILE = "";
+
+    public static final String ENV_STATIC_RESPONSE_MAX_AGE = "STATIC_RESPONSE_MAX_AGE";
+    public static final Long DEFAULT_STATIC_RESPONSE_MAX_AGE = 60L;
+
+    public static final String ENV_HTTP_COMPRESSION = "HTTP_COMPRESSION";
+    public static final Boolean DEFAULT_HTTP_COMPRESSION = true;
+
+    public static final String ENV_HTTP_COMPRESSION_LEVEL = "HTTP_COMPRESSION_LEVEL";
+    public static final Integer DEFAULT_HTTP_COMPRESSION_LEVEL = 6;
+
+    public static final String ENV_HTTP_SERVER_HTTP2 = "HTTP_SERVER_HTTP2";
+    public static final Boolean DEFAULT_HTTP_SERVER_HTTP2 = true;
+
+    public static final String ENV_HTTP_SERVER_TCP_NODELAY = "HTTP_SERVER_TCP_NODELAY";
+    public static final Boolean DEFAULT_HTTP_SERVER_TCP_NODELAY = true;
+
+    public static final String ENV_HTTP_SERVER_ACCEPT_BACKLOG = "HTTP_SERVER_ACCEPT_BACKLOG";
+    public static final Integer DEFAULT_HTTP_SERVER_ACCEPT_BACKLOG = 1024;
+
+    public static final String ENV_DOWNLOAD_COALESCING_BUFFER_SIZE = "DOWNLOAD_COALESCING_BUFFER_SIZE";
+    public static final Long DEFAULT_DOWNLOAD_COALESCING_BUFFER_SIZE = 8L * 1024 * 1024;
+
+    public static final String ENV_PREFETCH_ENABLED = "PREFETCH_ENABLED";
+    public static final Boolean DEFAULT_PREFETCH_ENABLED = false;
+
+    public static final String ENV_PREFETCH_CONCURRENCY = "PREFETCH_CONCURRENCY";
+    public static final Integer DEFAULT_PREFETCH_CONCURRENCY = 2;
+
+    public static final String ENV_PREFETCH_BANDWIDTH = "PREFETCH_BANDWIDTH";
+    public static final Long DEFAULT_PREFETCH_BANDWIDTH = 10L * 1024 * 1024;
+
+    public static final String ENV_PREFETCH_MAX_FILE_SIZE = "PREFETCH_MAX_FILE_SIZE";
+    public static final Long DEFAULT_PREFETCH_MAX_FILE_SIZE = 1024L * 1024 * 1024;
+
+    public static final String ENV_PREFETCH_MAX_ATTEMPTS = "PREFETCH_MAX_ATTEMPTS";
+    public static final Integer DEFAULT_PREFETCH_MAX_ATTEMPTS = 5;
+
+    public static final String ENV_PREFETCH_RETRY_DELAY = "PREFETCH_RETRY_DELAY";
+    public static final Long DEFAULT_PREFETCH_RETRY_DELAY = 60000L;
+
+    public static final String ENV_ARCHIVE_READ_AHEAD = "ARCHIVE_READ_AHEAD";
+    public static final Integer DEFAULT_ARCHIVE_READ_AHEAD = 2;
+
+    public static final String ENV_ARCHIVE_READ_AHEAD_BUFFER_SIZE = "ARCHIVE_READ_AHEAD_BUFFER_SIZE";
+    public static final Long DEFAULT_ARCHIVE_READ_AHEAD_BUFFER_SIZE = 4L * 1024 * 1024;
+
+    public static final String ENV_ARCHIVE_COMPRESSION_LEVEL = "ARCHIVE_COMPRESSION_LEVEL";
+    public static final Integer DEFAULT_ARCHIVE_COMPRESSION_LEVEL = 1;
+}
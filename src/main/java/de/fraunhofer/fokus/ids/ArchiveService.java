@@ -0,0 +1,669 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.services.database.DatabaseService;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.ext.web.RoutingContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams all distributions of a data asset as one zip archive, so that a consumer retrieves a dataset with a single
+ * request instead of one /getFile request per distribution. The archive is written incrementally without temporary
+ * files:
+ * <ul>
+ * <li>entries are written with data descriptors, since CRC and sizes are only known once a distribution has been
+ * read, Zip64 records are added where sizes, offsets or the number of entries require them,</li>
+ * <li>distributions are deflated with the configured level, already compressed formats (zip, gz, parquet, images,
+ * ...) with level 0, i.e. as stored deflate blocks that cost no CPU,</li>
+ * <li>while one distribution is written, the next ones are requested from upstream, each buffering up to the read
+ * ahead buffer size before its upstream response is paused,</li>
+ * <li>distributions in the {@link FileCache} are read from disk.</li>
+ * </ul>
+ * The archive is sent with a {@link FileTransfer}, i.e. with its flow control, bandwidth limit and idle timeout. A
+ * distribution failing after the response started aborts the transfer, so that the client does not mistake the
+ * truncated archive for a complete one.
+ */
+public class ArchiveService {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(ArchiveService.class.getName());
+
+    // the files of the tracked record, if any, name the distributions
+    private static final String FIND_DISTRIBUTIONS = "SELECT a.distributionid, a.url, s.files FROM accessinformation a " +
+            "LEFT JOIN syncrecord s ON s.datasetid = a.datasetid WHERE a.datasetid = ? ORDER BY a.distributionid";
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4", "parquet", "orc", "avro",
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "avi", "mov",
+            "docx", "xlsx", "pptx", "odt", "ods", "odp", "jar"));
+
+    private final Vertx vertx;
+    private final DatabaseService databaseService;
+    private final HttpClient httpClient;
+    private final FileCache fileCache;
+    private final int readAhead;
+    private final long readAheadBufferSize;
+    private final int compressionLevel;
+    private final int writeQueueMaxSize;
+    private final long transferIdleTimeout;
+
+    /**
+     * @param httpClient upstream client created with {@link UpstreamClients#downloadOptions(JsonObject)}
+     * @param fileCache  local cache for downloaded distributions, may be null to always stream from upstream
+     */
+    public ArchiveService(Vertx vertx, JsonObject config, HttpClient httpClient, FileCache fileCache) {
+        this.vertx = vertx;
+        this.databaseService = LocalServices.lookup(vertx, DatabaseService.class, ApplicationConfig.DATABASE_SERVICE, DatabaseService::createProxy);
+        this.httpClient = httpClient;
+        this.fileCache = fileCache;
+        this.readAhead = config.getInteger(ApplicationConfig.ENV_ARCHIVE_READ_AHEAD, ApplicationConfig.DEFAULT_ARCHIVE_READ_AHEAD);
+        this.readAheadBufferSize = config.getLong(ApplicationConfig.ENV_ARCHIVE_READ_AHEAD_BUFFER_SIZE, ApplicationConfig.DEFAULT_ARCHIVE_READ_AHEAD_BUFFER_SIZE);
+        this.compressionLevel = config.getInteger(ApplicationConfig.ENV_ARCHIVE_COMPRESSION_LEVEL, ApplicationConfig.DEFAULT_ARCHIVE_COMPRESSION_LEVEL);
+        this.writeQueueMaxSize = config.getInteger(ApplicationConfig.ENV_FILE_WRITE_QUEUE_MAX_SIZE, ApplicationConfig.DEFAULT_FILE_WRITE_QUEUE_MAX_SIZE);
+        this.transferIdleTimeout = config.getLong(ApplicationConfig.ENV_FILE_TRANSFER_IDLE_TIMEOUT, ApplicationConfig.DEFAULT_FILE_TRANSFER_IDLE_TIMEOUT);
+    }
+
+    /**
+     * Responds with the archive of all distributions of the data asset, 404 if it has none.
+     */
+    public void getArchive(String datasetId, RoutingContext routingContext) {
+        HttpServerResponse response = routingContext.response();
+        databaseService.query(FIND_DISTRIBUTIONS, new JsonArray().add(datasetId), reply -> {
+            if (reply.failed()) {
+                LOGGER.error("Distributions of " + datasetId + " could not be retrieved.", reply.cause());
+                response.setStatusCode(500).end();
+                return;
+            }
+            if (reply.result().isEmpty()) {
+                response.setStatusCode(404).end();
+                return;
+            }
+            if (response.closed()) {
+                return;
+            }
+            Map<String, String> fileKeys = fileKeys(reply.result().get(0).getString("files"));
+            List<Entry> entries = reply.result().stream()
+                    .map(row -> new Entry(row.getString("distributionid"), row.getString("url"), fileKeys.get(row.getString("distributionid"))))
+                    .collect(Collectors.toList());
+            LOGGER.info("Streaming archive of " + entries.size() + " distributions of " + datasetId);
+
+            response.putHeader(HttpHeaders.CONTENT_TYPE, "application/zip")
+                    .putHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + datasetId.replace("\"", "") + ".zip\"")
+                    .setChunked(true);
+            Archive archive = new Archive(entries);
+            FileTransfer transfer = new FileTransfer(vertx, routingContext.request(), writeQueueMaxSize, transferIdleTimeout, AdmissionControl.bandwidth(routingContext))
+                    .onCancel(archive::cancel);
+            routingContext.addEndHandler(end -> {
+                if (end.failed()) {
+                    transfer.clientClosed();
+                }
+            });
+            transfer.start(archive, response, ar -> {
+                if (ar.succeeded()) {
+                    LOGGER.info("Archive of " + datasetId + " sent to client.");
+                } else {
+                    LOGGER.error("Archive of " + datasetId + " could not be sent: " + ar.cause().getMessage());
+                }
+            });
+            archive.start();
+        });
+    }
+
+    /**
+     * @param files files of the tracked record as stored by the {@link RecordSyncService}, may be null
+     * @return file keys of the record by distribution id
+     */
+    private static Map<String, String> fileKeys(String files) {
+        Map<String, String> fileKeys = new HashMap<>();
+        if (files != null) {
+            JsonObject json = new JsonObject(files);
+            for (String key : json.fieldNames()) {
+                JsonObject file = json.getJsonObject(key);
+                if (file != null && file.getString("distributionid") != null) {
+                    fileKeys.put(file.getString("distributionid"), key);
+                }
+            }
+        }
+        return fileKeys;
+    }
+
+    /**
+     * Name of the distribution in the archive, the first of
+     * <ul>
+     * <li>the file key of the tracked Zenodo record,</li>
+     * <li>the file name of the upstream Content-Disposition header,</li>
+     * <li>the last segment of the URL path, which is not unique for links like .../files/{key}/content,</li>
+     * <li>the distribution id.</li>
+     * </ul>
+     */
+    private static String entryName(Entry entry) {
+        String name = fileName(entry.fileKey);
+        if (name == null) {
+            name = fileName(entry.contentDispositionName);
+        }
+        if (name == null) {
+            try {
+                name = fileName(URI.create(entry.url).getPath());
+            } catch (IllegalArgumentException e) {
+                // not a valid URI, named by its distribution id
+            }
+        }
+        return name != null ? name : entry.distributionId;
+    }
+
+    /**
+     * @return the last segment of the path, null if there is none, so that entries cannot escape the archive
+     */
+    private static String fileName(String path) {
+        if (path == null) {
+            return null;
+        }
+        String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+        return name.isEmpty() || name.equals(".") || name.equals("..") ? null : name;
+    }
+
+    /**
+     * @return the file name of a Content-Disposition header, preferring the extended filename* parameter of RFC 6266
+     */
+    private static String contentDispositionName(String contentDisposition) {
+        if (contentDisposition == null) {
+            return null;
+        }
+        String fileName = null;
+        for (String parameter : contentDisposition.split(";")) {
+            int separator = parameter.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String name = parameter.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+            String value = parameter.substring(separator + 1).trim();
+            if (name.equals("filename*")) {
+                // charset'language'percent-encoded-name
+                int quote = value.indexOf('\'', value.indexOf('\'') + 1);
+                try {
+                    return URLDecoder.decode(value.substring(quote + 1).replace("+", "%2B"), "UTF-8");
+                } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                    // falls back to the plain filename parameter
+                }
+            } else if (name.equals("filename")) {
+                fileName = value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")
+                        ? value.substring(1, value.length() - 1)
+                        : value;
+            }
+        }
+        return fileName;
+    }
+
+    private static boolean compressed(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && COMPRESSED_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The zip archive as a stream of buffers, entries are read one after another while the next ones are fetched
+     * ahead. Only used on the context of its request.
+     */
+    private final class Archive implements ReadStream<Buffer> {
+
+        private final List<Entry> entries;
+        private final Set<String> names = new HashSet<>();
+        private final Sink sink = new Sink();
+        private final ZipOutputStream zip = new ZipOutputStream(sink);
+        private int current = -1;
+        private ReadStream<Buffer> source;
+        private boolean paused = true;
+        private boolean done;
+        private Handler<Buffer> handler;
+        private Handler<Void> endHandler;
+        private Handler<Throwable> exceptionHandler;
+
+        private Archive(List<Entry> entries) {
+            this.entries = entries;
+        }
+
+        private void start() {
+            next();
+        }
+
+        /**
+         * Starts the next entry, or writes the central directory after the last one.
+         */
+        private void next() {
+            if (done) {
+                return;
+            }
+            current++;
+            for (int i = current + 1; i <= current + readAhead && i < entries.size(); i++) {
+                entries.get(i).fetch();
+            }
+            if (current == entries.size()) {
+                finish();
+                return;
+            }
+            Entry entry = entries.get(current);
+            entry.open().onComplete(open -> {
+                if (open.failed()) {
+                    fail(new IOException("Distribution " + entry.distributionId + " could not be read: " + open.cause().getMessage(), open.cause()));
+                } else if (done) {
+                    entry.cancel();
+                } else {
+                    write(entry, open.result());
+                }
+            });
+        }
+
+        private void write(Entry entry, ReadStream<Buffer> source) {
+            this.source = source;
+            String name = uniqueName(entryName(entry));
+            try {
+                zip.setLevel(compressed(name) ? Deflater.NO_COMPRESSION : compressionLevel);
+                zip.putNextEntry(new ZipEntry(name));
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            emit();
+            source.handler(chunk -> {
+                try {
+                    zip.write(chunk.getBytes());
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                emit();
+            });
+            source.exceptionHandler(this::fail);
+            source.endHandler(v -> {
+                try {
+                    zip.closeEntry();
+                } catch (IOException e) {
+                    fail(e);
+                    return;
+                }
+                entry.close();
+                this.source = null;
+                emit();
+                next();
+            });
+            if (paused) {
+                source.pause();
+            } else {
+                source.resume();
+            }
+        }
+
+        private void finish() {
+            try {
+                zip.finish();
+            } catch (IOException e) {
+                fail(e);
+                return;
+            }
+            emit();
+            done = true;
+            if (endHandler != null) {
+                endHandler.handle(null);
+            }
+        }
+
+        /**
+         * Passes the bytes the zip stream has written to the sink on to the handler.
+         */
+        private void emit() {
+            Buffer buffer = sink.drain();
+            if (buffer.length() > 0 && handler != null && !done) {
+                handler.handle(buffer);
+            }
+        }
+
+        private String uniqueName(String name) {
+            String unique = name;
+            int dot = name.lastIndexOf('.');
+            for (int i = 2; !names.add(unique); i++) {
+                unique = dot > 0
+                        ? name.substring(0, dot) + " (" + i + ")" + name.substring(dot)
+                        : name + " (" + i + ")";
+            }
+            return unique;
+        }
+
+        private void fail(Throwable cause) {
+            if (done) {
+                return;
+            }
+            cancel();
+            if (exceptionHandler != null) {
+                exceptionHandler.handle(cause);
+            }
+        }
+
+        /**
+         * Stops all upstream requests and releases the deflater.
+         */
+        private void cancel() {
+            done = true;
+            entries.forEach(Entry::cancel);
+            try {
+                zip.close();
+            } catch (IOException e) {
+                // only the in-memory sink is written
+            }
+        }
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+            this.exceptionHandler = handler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            paused = true;
+            if (source != null) {
+                source.pause();
+            }
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            paused = false;
+            if (source != null) {
+                source.resume();
+            }
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            return amount > 0 ? resume() : this;
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+            this.endHandler = endHandler;
+            return this;
+        }
+    }
+
+    /**
+     * A distribution of the archive, read from the file cache or fetched from upstream, possibly ahead of time.
+     */
+    private final class Entry {
+
+        private final String distributionId;
+        private final String url;
+        private final String fileKey;
+        private String contentDispositionName;
+        private Promise<ReadAhead> fetched;
+        private HttpClientRequest request;
+        private AsyncFile file;
+        private int statusCode;
+        private boolean retried;
+
+        /**
+         * @param fileKey file key of the tracked record, null if the data asset is not tracked
+         */
+        private Entry(String distributionId, String url, String fileKey) {
+            this.distributionId = distributionId;
+            this.url = url;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * Requests the distribution from upstream ahead of time unless it is cached or already requested.
+         */
+        private void fetch() {
+            if (fetched == null && (fileCache == null || fileCache.lookup(url) == null)) {
+                request();
+            }
+        }
+
+        /**
+         * @return the content of the distribution, paused
+         */
+        private Future<ReadStream<Buffer>> open() {
+            FileCache.CachedFile cachedFile = fetched == null && fileCache != null ? fileCache.lookup(url) : null;
+            if (cachedFile == null) {
+                return upstream();
+            }
+            return Future.<AsyncFile>future(open -> vertx.fileSystem().open(cachedFile.getPath(), new OpenOptions().setRead(true), open))
+                    .map(opened -> {
+                        AdapterMetrics.registry().counter(AdapterMetrics.ARCHIVE_ENTRIES, "source", "cache").increment();
+                        file = opened;
+                        return (ReadStream<Buffer>) opened.setReadLength(cachedFile.getSize()).pause();
+                    })
+                    .recover(cause -> {
+                        LOGGER.info("Cached file " + cachedFile.getPath() + " vanished, falling back to upstream.");
+                        return upstream();
+                    });
+        }
+
+        /**
+         * Nothing of a response is read before the entry is opened, so a failed request, e.g. a response fetched
+         * ahead that upstream closed while it waited, is retried once. Error responses are not retried.
+         */
+        private Future<ReadStream<Buffer>> upstream() {
+            AdapterMetrics.registry().counter(AdapterMetrics.ARCHIVE_ENTRIES, "source", "upstream").increment();
+            if (fetched == null) {
+                request();
+            }
+            return response().recover(cause -> {
+                if (retried || statusCode != 0) {
+                    return Future.failedFuture(cause);
+                }
+                LOGGER.info("Request of " + url + " failed (" + cause.getMessage() + "), retrying.");
+                retried = true;
+                cancel();
+                request();
+                return response();
+            });
+        }
+
+        private Future<ReadStream<Buffer>> response() {
+            return fetched.future().compose(readAhead -> readAhead.failure != null
+                    ? Future.failedFuture(readAhead.failure)
+                    : Future.succeededFuture(readAhead));
+        }
+
+        private void request() {
+            Promise<ReadAhead> promise = Promise.promise();
+            HttpClientRequest request = httpClient.requestAbs(HttpMethod.GET, url)
+                    .setFollowRedirects(true);
+            request.handler(response -> {
+                response.exceptionHandler(promise::tryFail);
+                if (response.statusCode() != 200) {
+                    statusCode = response.statusCode();
+                    promise.tryFail("Upstream responded with status code " + response.statusCode());
+                    request.reset();
+                    return;
+                }
+                contentDispositionName = contentDispositionName(response.getHeader(HttpHeaders.CONTENT_DISPOSITION));
+                promise.tryComplete(new ReadAhead(response));
+            });
+            request.exceptionHandler(promise::tryFail);
+            request.end();
+            this.fetched = promise;
+            this.request = request;
+        }
+
+        private void close() {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+            request = null;
+        }
+
+        private void cancel() {
+            if (request != null) {
+                request.reset();
+                request = null;
+            }
+            close();
+        }
+    }
+
+    /**
+     * Buffers an upstream response until it is read, at most the read ahead buffer size before the response is
+     * paused.
+     */
+    private final class ReadAhead implements ReadStream<Buffer> {
+
+        private final HttpClientResponse response;
+        private final Deque<Buffer> queue = new ArrayDeque<>();
+        private long queued;
+        private boolean paused = true;
+        private boolean ended;
+        private Throwable failure;
+        private boolean draining;
+        private Handler<Buffer> handler;
+        private Handler<Void> endHandler;
+        private Handler<Throwable> exceptionHandler;
+
+        private ReadAhead(HttpClientResponse response) {
+            this.response = response;
+            response.handler(chunk -> {
+                queue.add(chunk);
+                queued += chunk.length();
+                if (queued >= readAheadBufferSize) {
+                    response.pause();
+                }
+                drain();
+            });
+            response.endHandler(v -> {
+                ended = true;
+                drain();
+            });
+            response.exceptionHandler(e -> {
+                failure = e;
+                drain();
+            });
+        }
+
+        private void drain() {
+            if (draining) {
+                return;
+            }
+            draining = true;
+            while (!paused && handler != null && !queue.isEmpty()) {
+                Buffer chunk = queue.poll();
+                queued -= chunk.length();
+                handler.handle(chunk);
+            }
+            draining = false;
+            if (paused || !queue.isEmpty()) {
+                return;
+            }
+            if (failure != null && exceptionHandler != null) {
+                Handler<Throwable> exceptionHandler = this.exceptionHandler;
+                this.exceptionHandler = null;
+                exceptionHandler.handle(failure);
+            } else if (ended && endHandler != null) {
+                Handler<Void> endHandler = this.endHandler;
+                this.endHandler = null;
+                endHandler.handle(null);
+            } else if (!ended && failure == null) {
+                response.resume();
+            }
+        }
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+            this.exceptionHandler = handler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            paused = true;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            paused = false;
+            drain();
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            return amount > 0 ? resume() : this;
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+            this.endHandler = endHandler;
+            return this;
+        }
+    }
+
+    /**
+     * Collects the output of the zip stream in memory until it is emitted.
+     */
+    private static final class Sink extends OutputStream {
+
+        private Buffer buffer = Buffer.buffer();
+
+        @Override
+        public void write(int b) {
+            buffer.appendByte((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.appendBytes(b, off, len);
+        }
+
+        private Buffer drain() {
+            Buffer drained = buffer;
+            buffer = Buffer.buffer();
+            return drained;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package de.fraunhofer.fokus.ids;
+
+/**
+ * Single byte range of an HTTP Range header ("bytes=start-end", "bytes=start-" or "bytes=-suffixLength")
+ * resolved against the length of the requested file. Multiple ranges are not supported, such requests
+ * are answered with the complete file as allowed by RFC 7233.
+ */
+public class ByteRange {
+
+    private final long start;
+    private final long end;
+    private final long length;
+
+    private ByteRange(long start, long end, long length) {
+        this.start = start;
+        this.end = end;
+        this.length = length;
+    }
+
+    /**
+     * @param header value of the Range header
+     * @param length length of the complete file
+     * @return the requested range, null if the header is missing, malformed or requests multiple ranges
+     */
+    public static ByteRange parse(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.contains(",")) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffixLength = Long.parseLong(last);
+                return new ByteRange(Math.max(0, length - suffixLength), length - 1, length);
+            }
+            long start = Long.parseLong(first);
+            if (last.isEmpty()) {
+                return new ByteRange(start, length - 1, length);
+            }
+            long end = Long.parseLong(last);
+            if (end < start) {
+                return null;
+            }
+            return new ByteRange(start, Math.min(end, length - 1), length);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return false if the range lies completely outside of the file and must be answered with 416
+     */
+    public boolean isSatisfiable() {
+        return start < length && start <= end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getContentLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @return value of the Content-Range header for this range
+     */
+    public String contentRange() {
+        return isSatisfiable()
+                ? "bytes " + start + "-" + end + "/" + length
+                : "bytes */" + length;
+    }
+}
@@ -0,0 +1,117 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Write stream that forwards a download to the client and writes a copy into the {@link FileCache}.
+ * Failures of the cache file never affect the client; the copy is simply discarded.
+ */
+public class CachingWriteStream implements WriteStream<Buffer> {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(CachingWriteStream.class.getName());
+
+    private final WriteStream<Buffer> delegate;
+    private final FileCache fileCache;
+    private final FileCache.CacheWriter cacheWriter;
+    private final Promise<Void> cacheClosed = Promise.promise();
+    private boolean cacheFailed;
+    private boolean closing;
+    private long bytesWritten;
+
+    public CachingWriteStream(WriteStream<Buffer> delegate, FileCache fileCache, FileCache.CacheWriter cacheWriter) {
+        this.delegate = delegate;
+        this.fileCache = fileCache;
+        this.cacheWriter = cacheWriter;
+        cacheWriter.getFile().exceptionHandler(e -> {
+            LOGGER.error("Writing to cache file failed.", e);
+            cacheFailed = true;
+        });
+    }
+
+    @Override
+    public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+        delegate.exceptionHandler(handler);
+        return this;
+    }
+
+    @Override
+    public WriteStream<Buffer> write(Buffer data) {
+        return write(data, null);
+    }
+
+    @Override
+    public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
+        if (!cacheFailed) {
+            cacheWriter.getFile().write(data);
+            bytesWritten += data.length();
+        }
+        delegate.write(data, handler);
+        return this;
+    }
+
+    @Override
+    public void end() {
+        end((Handler<AsyncResult<Void>>) null);
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+        closeCacheFile();
+        delegate.end(handler);
+    }
+
+    @Override
+    public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+        delegate.setWriteQueueMaxSize(maxSize);
+        return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        return delegate.writeQueueFull() || (!cacheFailed && cacheWriter.getFile().writeQueueFull());
+    }
+
+    @Override
+    public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+        delegate.drainHandler(v -> {
+            if (!writeQueueFull()) {
+                handler.handle(null);
+            }
+        });
+        cacheWriter.getFile().drainHandler(v -> {
+            if (!writeQueueFull()) {
+                handler.handle(null);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Finishes the cache copy once the upstream request completed.
+     *
+     * @param success true if the complete upstream body was received with a successful status code
+     */
+    public void complete(boolean success) {
+        closeCacheFile();
+        cacheClosed.future().onComplete(closed -> {
+            if (success && closed.succeeded() && !cacheFailed) {
+                fileCache.commit(cacheWriter, bytesWritten);
+            } else {
+                fileCache.discard(cacheWriter);
+            }
+        });
+    }
+
+    private void closeCacheFile() {
+        if (!closing) {
+            closing = true;
+            cacheWriter.getFile().close(cacheClosed);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous semaphore limiting the number of concurrently running tasks.
+ * Tasks exceeding the limit are queued and started in FIFO order once a running task completes.
+ * Instances are not thread safe and must only be used from the context that created them.
+ */
+public class ConcurrencyLimiter {
+
+    private final int maxConcurrency;
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+    private int running;
+    private boolean draining;
+
+    public ConcurrencyLimiter(int maxConcurrency) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    /**
+     * @param task supplier starting the asynchronous task, invoked once a slot is free
+     * @return future completed with the result of the task
+     */
+    public <T> Future<T> execute(Supplier<Future<T>> task) {
+        Promise<T> promise = Promise.promise();
+        queue.add(() -> {
+            Future<T> future;
+            try {
+                future = task.get();
+            } catch (RuntimeException e) {
+                future = Future.failedFuture(e);
+            }
+            future.onComplete(ar -> {
+                running--;
+                next();
+                promise.handle(ar);
+            });
+        });
+        next();
+        return promise.future();
+    }
+
+    private void next() {
+        // tasks completing synchronously re-enter next(), the outermost call keeps draining the queue
+        if (draining) {
+            return;
+        }
+        draining = true;
+        try {
+            while (running < maxConcurrency && !queue.isEmpty()) {
+                running++;
+                queue.poll().run();
+            }
+        } finally {
+            draining = false;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.messages.DataAssetCreateMessage;
+import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
+import de.fraunhofer.fokus.ids.services.zenodo.ZenodoService;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Creates data assets for many Zenodo records in one request. Records are given either as a list of
+ * record ids or as a Zenodo search (query and/or community). They are processed with bounded parallelism
+ * and the result of every record is streamed back as one line of newline delimited JSON. Every record is created
+ * at most once per batch, also if records published meanwhile shift it to the next page of the search.
+ */
+public class DataAssetBatchService {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(DataAssetBatchService.class.getName());
+
+    private final ZenodoService zenodoService;
+    private final DataAssetService dataAssetService;
+    private final int concurrency;
+
+    public DataAssetBatchService(Vertx vertx, JsonObject config, DataAssetService dataAssetService) {
+        this.zenodoService = LocalServices.lookup(vertx, ZenodoService.class, ApplicationConfig.ZENODO_SERVICE, ZenodoService::createProxy);
+        this.dataAssetService = dataAssetService;
+        this.concurrency = config.getInteger(ApplicationConfig.ENV_BATCH_CREATE_CONCURRENCY, ApplicationConfig.DEFAULT_BATCH_CREATE_CONCURRENCY);
+    }
+
+    /**
+     * @param message data source and either "recordIds" or "query"/"community" in its data
+     */
+    public void createDataAssets(DataAssetCreateMessage message, HttpServerResponse response) {
+        JsonObject data = message.getData() != null ? message.getData() : new JsonObject();
+        if (data.getJsonArray("recordIds") == null && data.getString("query") == null && data.getString("community") == null) {
+            LOGGER.error("Neither recordIds nor a query or community provided.");
+            response.setStatusCode(400).end();
+            return;
+        }
+        BatchState state = new BatchState(message.getDataSource(), response, new ConcurrencyLimiter(concurrency));
+
+        response.setChunked(true)
+                .putHeader("content-type", "application/x-ndjson");
+        response.closeHandler(v -> {
+            LOGGER.info("Client closed the connection, batch creation cancelled.");
+            state.cancelled = true;
+            state.awaitingDrain.forEach(Promise::tryComplete);
+        });
+
+        Future<Void> batch;
+        if (data.getJsonArray("recordIds") != null) {
+            batch = createAll(data.getJsonArray("recordIds").stream()
+                    .map(Object::toString)
+                    .collect(Collectors.toList()), state);
+        } else {
+            JsonObject search = new JsonObject()
+                    .put("query", data.getString("query"))
+                    .put("community", data.getString("community"));
+            batch = createAllFound(search, 1, state);
+        }
+
+        batch.onComplete(ar -> {
+            if (state.cancelled) {
+                return;
+            }
+            JsonObject summary = new JsonObject()
+                    .put("status", ar.succeeded() ? "done" : "error")
+                    .put("succeeded", state.succeeded)
+                    .put("failed", state.failed);
+            if (ar.failed()) {
+                LOGGER.error("Batch creation failed.", ar.cause());
+                summary.put("message", ar.cause().getMessage());
+            }
+            response.end(summary.encode() + "\n");
+        });
+    }
+
+    private Future<Void> createAllFound(JsonObject search, int page, BatchState state) {
+        String accessToken = state.dataSource.getData().getString("accessToken");
+        return Future.<JsonObject>future(result -> zenodoService.search(JsonObject.mapFrom(state.dataSource), search, page, accessToken, result))
+                .compose(result -> createAll(result.getJsonArray("recordIds", new JsonArray()).stream()
+                                .map(Object::toString)
+                                .collect(Collectors.toList()), state)
+                        .compose(v -> result.getBoolean("hasNext", false) && !state.cancelled
+                                ? createAllFound(search, page + 1, state)
+                                : Future.succeededFuture()));
+    }
+
+    private Future<Void> createAll(List<String> recordIds, BatchState state) {
+        List<Future> results = recordIds.stream()
+                .filter(state.seen::add)
+                .map(recordId -> state.limiter.<Void>execute(() -> create(recordId, state)))
+                .collect(Collectors.toList());
+        return CompositeFuture.join(results).mapEmpty();
+    }
+
+    private Future<Void> create(String recordId, BatchState state) {
+        if (state.cancelled) {
+            return Future.succeededFuture();
+        }
+        return Future.future(create -> dataAssetService.createDataAsset(state.dataSource, recordId, ar -> {
+            JsonObject line = new JsonObject().put("recordId", recordId);
+            if (ar.succeeded()) {
+                state.succeeded++;
+                line.put("status", "success").put("dataAsset", ar.result());
+            } else {
+                state.failed++;
+                line.put("status", "error").put("message", ar.cause().getMessage());
+            }
+            if (state.cancelled) {
+                create.complete();
+            } else {
+                state.write(line, create);
+            }
+        }));
+    }
+
+    private static final class BatchState {
+        private final DataSource dataSource;
+        private final HttpServerResponse response;
+        private final ConcurrencyLimiter limiter;
+        private final List<Promise<Void>> awaitingDrain = new ArrayList<>();
+        // records already started, the pages of a search sorted by most recent shift while records are published
+        private final Set<String> seen = new HashSet<>();
+        private boolean cancelled;
+        private int succeeded;
+        private int failed;
+
+        private BatchState(DataSource dataSource, HttpServerResponse response, ConcurrencyLimiter limiter) {
+            this.dataSource = dataSource;
+            this.response = response;
+            this.limiter = limiter;
+        }
+
+        /**
+         * Writes a result line. The written promise completes once the client keeps up, which holds the
+         * limiter slot and stops further records from starting while the response is backed up.
+         */
+        private void write(JsonObject line, Promise<Void> written) {
+            response.write(line.encode() + "\n");
+            if (!response.writeQueueFull()) {
+                written.complete();
+                return;
+            }
+            awaitingDrain.add(written);
+            response.drainHandler(v -> {
+                List<Promise<Void>> drained = new ArrayList<>(awaitingDrain);
+                awaitingDrain.clear();
+                drained.forEach(Promise::tryComplete);
+            });
+        }
+    }
+}
@@ -1,13 +1,13 @@
 package de.fraunhofer.fokus.ids;
 
 import de.fraunhofer.fokus.ids.messages.DataAssetCreateMessage;
+import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
 import de.fraunhofer.fokus.ids.persistence.entities.Dataset;
 import de.fraunhofer.fokus.ids.persistence.entities.Distribution;
 import de.fraunhofer.fokus.ids.persistence.enums.DataAssetStatus;
 import de.fraunhofer.fokus.ids.services.database.DatabaseService;
 import de.fraunhofer.fokus.ids.services.zenodo.ZenodoService;
 import io.vertx.core.*;
-import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
@@ -39,176 +39,273 @@ public class DataAssetService {
     private final ZenodoService zenodoService;
     private final DatabaseService databaseService;
     private final FileService fileService;
-
-    public DataAssetService(Vertx vertx) {
-        this.zenodoService = ZenodoService.createProxy(vertx, ApplicationConfig.ZENODO_SERVICE);
-        this.databaseService = DatabaseService.createProxy(vertx, ApplicationConfig.DATABASE_SERVICE);
-        this.fileService = new FileService(vertx);
+    private final AccessInformationCache accessInformationCache;
+    private final RecordSyncService recordSyncService;
+    private final PrefetchService prefetchService;
+    private final ConcurrencyLimiter fileProbeLimiter;
+    private final boolean skipFileProbe;
+
+    /**
+     * @param fileService       file service of the same HTTP server instance, used to probe the distributions
+     * @param recordSyncService tracks the records of the created data assets
+     * @param prefetchService   prefetches the distributions of the created data assets
+     */
+    public DataAssetService(Vertx vertx, JsonObject config, AccessInformationCache accessInformationCache, FileService fileService, RecordSyncService recordSyncService, PrefetchService prefetchService) {
+        this.zenodoService = LocalServices.lookup(vertx, ZenodoService.class, ApplicationConfig.ZENODO_SERVICE, ZenodoService::createProxy);
+        this.databaseService = LocalServices.lookup(vertx, DatabaseService.class, ApplicationConfig.DATABASE_SERVICE, DatabaseService::createProxy);
+        this.fileService = fileService;
+        this.accessInformationCache = accessInformationCache;
+        this.recordSyncService = recordSyncService;
+        this.prefetchService = prefetchService;
+        this.fileProbeLimiter = new ConcurrencyLimiter(config.getInteger(ApplicationConfig.ENV_FILE_PROBE_CONCURRENCY, ApplicationConfig.DEFAULT_FILE_PROBE_CONCURRENCY));
+        this.skipFileProbe = config.getBoolean(ApplicationConfig.ENV_SKIP_FILE_PROBE, ApplicationConfig.DEFAULT_SKIP_FILE_PROBE);
     }
 
     public void deleteDataAsset(String id, Handler<AsyncResult<JsonObject>> resultHandler) {
-        databaseService.update("DELETE FROM accessinformation WHERE datasetid=?", new JsonArray().add(id), databaseDeleteReply -> {
-            if (databaseDeleteReply.succeeded()) {
-                LOGGER.info("Data Asset successfully deleted.");
-                resultHandler.handle(Future.succeededFuture(new JsonObject().put("status", "success")));
-            } else {
-                LOGGER.error("Data Asset could not be deleted.");
-                resultHandler.handle(Future.failedFuture(databaseDeleteReply.cause()));
+        accessInformationCache.invalidate(id);
+        // untracked first, a record sync only writes access information of tracked records
+        recordSyncService.untrack(id, untrack -> {
+            if (untrack.failed()) {
+                LOGGER.error("Record of data asset " + id + " could not be untracked.", untrack.cause());
+                resultHandler.handle(Future.failedFuture(untrack.cause()));
+                return;
             }
+            databaseService.deleteAccessInformation(id, databaseDeleteReply -> {
+                // drop entries that were read back from the database while the delete was in flight
+                accessInformationCache.invalidate(id);
+                if (databaseDeleteReply.succeeded()) {
+                    LOGGER.info("Data Asset successfully deleted.");
+                    prefetchService.remove(id, remove -> {
+                        if (remove.failed()) {
+                            LOGGER.error("Distributions of data asset " + id + " could not be removed from the prefetch queue.", remove.cause());
+                        }
+                    });
+                    resultHandler.handle(Future.succeededFuture(new JsonObject().put("status", "success")));
+                } else {
+                    LOGGER.error("Data Asset could not be deleted.");
+                    resultHandler.handle(Future.failedFuture(databaseDeleteReply.cause()));
+                }
+            });
         });
     }
 
-    private void saveAccessInformation(Distribution dist, String distributionUrl, String datasetId, Handler<AsyncResult<Void>> resultHandler) {
-        Date d = new Date();
-        databaseService.update("INSERT INTO accessinformation values(?,?,?,?,?)",
-                new JsonArray().add(d.toInstant()).add(d.toInstant())
-                        .add(datasetId)
-                        .add(dist.getResourceId())
-                        .add(distributionUrl), reply -> {
-                    if (reply.succeeded()) {
-                        LOGGER.info("Saved distribution with id " + dist.getResourceId() + " from dataset " + datasetId);
-                        resultHandler.handle(Future.succeededFuture());
-                    } else {
-                        LOGGER.error("Access information could not be inserted into database.", reply.cause());
-                        resultHandler.handle(Future.failedFuture(reply.cause()));
-                    }
-                });
+    /**
+     * Inserts the access information of all distributions of a dataset in one transaction.
+     *
+     * @param distributionUrls upstream URLs keyed by distribution id
+     */
+    private void saveAccessInformation(Map<String, String> distributionUrls, String datasetId, Handler<AsyncResult<Void>> resultHandler) {
+        if (distributionUrls.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+
+        databaseService.insertAccessInformation(datasetId, distributionUrls, reply -> {
+            if (reply.succeeded()) {
+                distributionUrls.forEach((distributionId, url) -> accessInformationCache.put(datasetId, distributionId, url));
+                LOGGER.info("Saved " + reply.result() + " distributions from dataset " + datasetId);
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                LOGGER.error("Access information could not be inserted into database.", reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+            }
+        });
     }
 
     public void createDataAsset(DataAssetCreateMessage message, Handler<AsyncResult<JsonObject>> resultHandler) {
-        String recordId = message.getData().getString("recordId");
-        String accessToken = message.getDataSource().getData().getString("accessToken");
-
-        zenodoService.query(new JsonObject(Json.encode(message.getDataSource())), recordId, accessToken, response -> {
-            if (response.succeeded()) {
-                LOGGER.info("Received: " + response.result());
-                Dataset dataset = new Dataset();
-                dataset.setStatus(DataAssetStatus.APPROVED);
-                dataset.setResourceId(response.result().getString("doi", UUID.randomUUID().toString()));
-
-                JsonObject metadata = response.result().getJsonObject("metadata");
-                //#AddAditioalDataToDatasetObject
-                Map<String, Set<String>> neededData = new HashMap<>();
-
-                if (metadata != null) {
-                    if (metadata.containsKey("title"))
-                        dataset.setTitle(metadata.getString("title"));
-
-                    if (metadata.containsKey("description"))
-                        dataset.setDescription(metadata.getString("description"));
-
-                    if (metadata.containsKey("license") && metadata.getJsonObject("license").containsKey("id"))
-                        dataset.setLicense(metadata.getJsonObject("license").getString("id"));
-
-                    if (metadata.containsKey("version"))
-                        dataset.setVersion(metadata.getString("version"));
-
-                    /**
-                     * New Section to add pid, author and data_access_level
-                     */
-                    dataset.setPublisher("zenodo.org");
-
-                    if (metadata.containsKey("doi") || response.result().containsKey("doi")){
-                        HashSet<String> pid = new HashSet<>();
-                        if(metadata.containsKey("doi"))
-                            pid.add(metadata.getString("doi"));
-                        else
-                            pid.add(response.result().getString("doi"));
-                        neededData.put("pid", pid);
-                    }
+        createDataAsset(message.getDataSource(), message.getData().getString("recordId"), resultHandler);
+    }
 
-                    if (metadata.containsKey("creators")){
-                        StringBuilder authorsNames = new StringBuilder();
-                        for(Object o : metadata.getJsonArray("creators")){
-                            JsonObject jo = (JsonObject) o;
-                            authorsNames.append(jo.getString("name")).append("-");
-                        }
-                        HashSet<String> author = new HashSet<>();
-                        author.add(authorsNames.substring(0, authorsNames.length() - 1));
-                        neededData.put("author", author);
-                    }
+    public void createDataAsset(DataSource dataSource, String recordId, Handler<AsyncResult<JsonObject>> resultHandler) {
+        String accessToken = dataSource.getData().getString("accessToken");
 
-                    if (metadata.containsKey("access_right")){
-                        HashSet<String> data_access_level = new HashSet<>();
-                        data_access_level.add( metadata.getString("access_right"));
-                        neededData.put("data_access_level", data_access_level);
-                    }
-                    /**
-                     * End of New Section to add pid, author and data_access_level
-                     */
-
-                    if (metadata.containsKey("keywords")) {
-                        dataset.setTags(metadata.getJsonArray("keywords")
-                                .stream()
-                                .map(Object::toString)
-                                .collect(Collectors.toSet()));
-                    }
-                }
-                dataset.setAdditionalmetadata(neededData);
+        zenodoService.query(JsonObject.mapFrom(dataSource), recordId, accessToken, response -> {
+            if (response.succeeded()) {
+                LOGGER.info("Received Zenodo record " + recordId + " with " + response.result().getJsonArray("files", new JsonArray()).size() + " files.");
+                Dataset dataset = buildDataset(response.result());
 
+                Map<String, String> distributionUrls = new HashMap<>();
                 List<Future> distributions = response.result().getJsonArray("files", new JsonArray()).stream()
-                        .map(file -> buildDistribution((JsonObject) file, dataset))
+                        .map(file -> buildDistribution((JsonObject) file, distributionUrls))
                         .collect(Collectors.toList());
 
                 CompositeFuture.all(distributions).onComplete(handler -> {
                     if (handler.succeeded()) {
-                        dataset.setDistributions(new HashSet<>(handler.result().list()));
-                        resultHandler.handle(Future.succeededFuture(new JsonObject(Json.encode(dataset))));
+                        saveAccessInformation(distributionUrls, dataset.getResourceId(), saveFiles -> {
+                            if (saveFiles.succeeded()) {
+                                // a record that is not tracked is only missed by the sync, the data asset is still usable
+                                recordSyncService.track(dataset.getResourceId(), recordId, JsonObject.mapFrom(dataSource), response.result(), distributionUrls, track -> {
+                                    if (track.failed()) {
+                                        LOGGER.error("Zenodo record " + recordId + " could not be tracked.", track.cause());
+                                    }
+                                });
+                                prefetchService.enqueue(dataset.getResourceId(), fileSizes(response.result(), distributionUrls), enqueue -> {
+                                    if (enqueue.failed()) {
+                                        LOGGER.error("Distributions of Zenodo record " + recordId + " could not be enqueued for prefetch.", enqueue.cause());
+                                    }
+                                });
+                                dataset.setDistributions(new HashSet<>(handler.result().list()));
+                                resultHandler.handle(Future.succeededFuture(JsonObject.mapFrom(dataset)));
+                            } else {
+                                resultHandler.handle(Future.failedFuture(saveFiles.cause()));
+                            }
+                        });
                     } else {
                         resultHandler.handle(Future.failedFuture(handler.cause()));
                     }
                 });
+            } else {
+                LOGGER.error("Zenodo record " + recordId + " could not be retrieved.", response.cause());
+                resultHandler.handle(Future.failedFuture(response.cause()));
             }
         });
     }
 
-    private Future<Distribution> buildDistribution(JsonObject zenodoDistribution, Dataset dataset) {
-        return Future.future(buildDistribution -> {
-            Distribution distribution = new Distribution();
-            Map<String, Set<String>> neededData = new HashMap<>();
-            //#AddAditioalDataToDistibutionObject
-            distribution.setResourceId(UUID.randomUUID().toString());
-
-            // TODO determine/generate proper filename
-            if (zenodoDistribution.containsKey("type")) {
-                distribution.setFiletype(zenodoDistribution.getString("type"));
+    /**
+     * @param distributionUrls upstream URLs of the created distributions keyed by distribution id
+     * @return sizes of the created distributions keyed by upstream URL, -1 if Zenodo reports no size
+     */
+    private static Map<String, Long> fileSizes(JsonObject record, Map<String, String> distributionUrls) {
+        Set<String> urls = new HashSet<>(distributionUrls.values());
+        Map<String, Long> sizes = new HashMap<>();
+        record.getJsonArray("files", new JsonArray()).stream()
+                .map(file -> (JsonObject) file)
+                .filter(file -> file.getJsonObject("links") != null && urls.contains(file.getJsonObject("links").getString("self")))
+                .forEach(file -> sizes.put(file.getJsonObject("links").getString("self"),
+                        file.getValue("size") instanceof Number ? ((Number) file.getValue("size")).longValue() : -1L));
+        return sizes;
+    }
+
+    /**
+     * Maps the metadata of a Zenodo record to a dataset without distributions.
+     */
+    static Dataset buildDataset(JsonObject record) {
+        Dataset dataset = new Dataset();
+        dataset.setStatus(DataAssetStatus.APPROVED);
+        dataset.setResourceId(record.getString("doi", UUID.randomUUID().toString()));
+
+        JsonObject metadata = record.getJsonObject("metadata");
+        //#AddAditioalDataToDatasetObject
+        Map<String, Set<String>> neededData = new HashMap<>();
+
+        if (metadata != null) {
+            if (metadata.containsKey("title"))
+                dataset.setTitle(metadata.getString("title"));
+
+            if (metadata.containsKey("description"))
+                dataset.setDescription(metadata.getString("description"));
+
+            if (metadata.containsKey("license") && metadata.getJsonObject("license").containsKey("id"))
+                dataset.setLicense(metadata.getJsonObject("license").getString("id"));
+
+            if (metadata.containsKey("version"))
+                dataset.setVersion(metadata.getString("version"));
+
+            /**
+             * New Section to add pid, author and data_access_level
+             */
+            dataset.setPublisher("zenodo.org");
+
+            if (metadata.containsKey("doi") || record.containsKey("doi")){
+                HashSet<String> pid = new HashSet<>();
+                if(metadata.containsKey("doi"))
+                    pid.add(metadata.getString("doi"));
+                else
+                    pid.add(record.getString("doi"));
+                neededData.put("pid", pid);
             }
 
-            if (zenodoDistribution.containsKey("size")) {
-                HashSet<String> byteSize = new HashSet<>();
-                byteSize.add(zenodoDistribution.getInteger("size").toString());
-                neededData.put("byte_size", byteSize);
+            if (metadata.containsKey("creators")){
+                StringBuilder authorsNames = new StringBuilder();
+                for(Object o : metadata.getJsonArray("creators")){
+                    JsonObject jo = (JsonObject) o;
+                    authorsNames.append(jo.getString("name")).append("-");
+                }
+                HashSet<String> author = new HashSet<>();
+                author.add(authorsNames.substring(0, authorsNames.length() - 1));
+                neededData.put("author", author);
+            }
+
+            if (metadata.containsKey("access_right")){
+                HashSet<String> data_access_level = new HashSet<>();
+                data_access_level.add( metadata.getString("access_right"));
+                neededData.put("data_access_level", data_access_level);
             }
-            distribution.setPublisher("zenodo.org");
+            /**
+             * End of New Section to add pid, author and data_access_level
+             */
+
+            if (metadata.containsKey("keywords")) {
+                dataset.setTags(metadata.getJsonArray("keywords")
+                        .stream()
+                        .map(Object::toString)
+                        .collect(Collectors.toSet()));
+            }
+        }
+        dataset.setAdditionalmetadata(neededData);
+        return dataset;
+    }
 
+    /**
+     * @param distributionUrls collects the upstream URL of the built distribution, keyed by distribution id
+     */
+    private Future<Distribution> buildDistribution(JsonObject zenodoDistribution, Map<String, String> distributionUrls) {
+        return Future.future(buildDistribution -> {
             if (zenodoDistribution.containsKey("links") && zenodoDistribution.getJsonObject("links").containsKey("self")) {
                 String downloadUrl = zenodoDistribution.getJsonObject("links").getString("self");
+                boolean probeFile = !skipFileProbe || zenodoDistribution.getString("key") == null;
+                Distribution distribution = buildDistributionMetadata(zenodoDistribution, downloadUrl, !probeFile);
 
-                String fileName = !StringUtils.substringAfterLast(downloadUrl, "/").isEmpty()
-                        ? StringUtils.substringAfterLast(downloadUrl, "/")
-                        : distribution.getFiletype();
-
-                distribution.setFilename(fileName);
-                distribution.setAdditionalmetadata(neededData);
-
+                if (!probeFile) {
+                    distributionUrls.put(distribution.getResourceId(), downloadUrl);
+                    buildDistribution.complete(distribution);
+                    return;
+                }
 
-                fileService.tryFile(downloadUrl, downloadFile -> {
-                    if (downloadFile.succeeded()) {
-                        saveAccessInformation(distribution, downloadUrl, dataset.getResourceId(), saveFile -> {
-                            if (saveFile.succeeded()) {
+                fileProbeLimiter.<String>execute(() -> Future.future(probe -> fileService.tryFile(downloadUrl, probe)))
+                        .onComplete(downloadFile -> {
+                            if (downloadFile.succeeded()) {
+                                distributionUrls.put(distribution.getResourceId(), downloadUrl);
                                 buildDistribution.complete(distribution);
                             } else {
-                                buildDistribution.fail(saveFile.cause());
+                                buildDistribution.fail(downloadFile.cause());
                             }
                         });
-                    } else {
-                        buildDistribution.fail(downloadFile.cause());
-                    }
-                });
             } else {
                 buildDistribution.fail("No downloadURL provided");
             }
         });
     }
-}
 
+    /**
+     * Maps a file entry of a Zenodo record to a distribution.
+     *
+     * @param useKeyAsFilename take the file name from the "key" of the entry instead of the download URL
+     */
+    static Distribution buildDistributionMetadata(JsonObject zenodoDistribution, String downloadUrl, boolean useKeyAsFilename) {
+        Distribution distribution = new Distribution();
+        Map<String, Set<String>> neededData = new HashMap<>();
+        //#AddAditioalDataToDistibutionObject
+        distribution.setResourceId(UUID.randomUUID().toString());
+
+        // TODO determine/generate proper filename
+        if (zenodoDistribution.containsKey("type")) {
+            distribution.setFiletype(zenodoDistribution.getString("type"));
+        }
+
+        if (zenodoDistribution.containsKey("size")) {
+            HashSet<String> byteSize = new HashSet<>();
+            byteSize.add(zenodoDistribution.getValue("size").toString());
+            neededData.put("byte_size", byteSize);
+        }
+        distribution.setPublisher("zenodo.org");
+
+        String fileName = !StringUtils.substringAfterLast(downloadUrl, "/").isEmpty()
+                ? StringUtils.substringAfterLast(downloadUrl, "/")
+                : distribution.getFiletype();
+
+        distribution.setFilename(useKeyAsFilename ? zenodoDistribution.getString("key") : fileName);
+        distribution.setAdditionalmetadata(neededData);
+        return distribution;
+    }
+}
@@ -0,0 +1,213 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Size capped on-disk cache for distributions downloaded from Zenodo.
+ * Entries are addressed by the SHA-256 hash of their upstream URL and evicted in least recently used order.
+ * Files are written to a temporary ".part" file first and only become visible after the download completed.
+ */
+public class FileCache {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(FileCache.class.getName());
+
+    private static final String PART_SUFFIX = ".part";
+
+    private final Vertx vertx;
+    private final Path directory;
+    private final long maxSize;
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long currentSize;
+
+    public FileCache(Vertx vertx, String directory, long maxSize) {
+        this.vertx = vertx;
+        this.directory = Paths.get(directory);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates the cache directory, removes incomplete downloads of a previous run and rebuilds the LRU index
+     * from the files on disk (oldest modification first).
+     */
+    public void init(Handler<AsyncResult<Void>> resultHandler) {
+        vertx.<Void>executeBlocking(init -> {
+            try {
+                Files.createDirectories(directory);
+                List<File> files;
+                try (Stream<Path> paths = Files.list(directory)) {
+                    files = paths.map(Path::toFile)
+                            .filter(File::isFile)
+                            .sorted(Comparator.comparingLong(File::lastModified))
+                            .collect(Collectors.toList());
+                }
+                synchronized (this) {
+                    for (File file : files) {
+                        if (file.getName().endsWith(PART_SUFFIX)) {
+                            Files.deleteIfExists(file.toPath());
+                        } else {
+                            entries.put(file.getName(), file.length());
+                            currentSize += file.length();
+                        }
+                    }
+                }
+                evict();
+                LOGGER.info("File cache initialized with " + entries.size() + " entries (" + currentSize + " bytes) in " + directory);
+                init.complete();
+            } catch (IOException e) {
+                init.fail(e);
+            }
+        }, resultHandler);
+    }
+
+    /**
+     * @param url upstream URL of the distribution
+     * @return the cached file or null if the URL is not cached
+     */
+    public synchronized CachedFile lookup(String url) {
+        String key = key(url);
+        Long size = entries.get(key);
+        return size != null
+                ? new CachedFile(directory.resolve(key).toString(), size)
+                : null;
+    }
+
+    /**
+     * Opens a temporary file to which a download of the given URL can be written.
+     * The file must be handed back via {@link #commit} or {@link #discard}.
+     */
+    public void open(String url, Handler<AsyncResult<CacheWriter>> resultHandler) {
+        String key = key(url);
+        String tempPath = directory.resolve(key + "." + UUID.randomUUID() + PART_SUFFIX).toString();
+        vertx.fileSystem().open(tempPath, new OpenOptions().setWrite(true).setCreateNew(true), ar -> {
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(new CacheWriter(key, tempPath, ar.result())));
+            } else {
+                LOGGER.error("Cache file could not be opened.", ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    /**
+     * Moves a completely written temporary file into the cache and evicts old entries if the size cap is exceeded.
+     */
+    public void commit(CacheWriter writer, long size) {
+        if (size > maxSize) {
+            discard(writer);
+            return;
+        }
+        vertx.<Void>executeBlocking(move -> {
+            try {
+                Files.move(Paths.get(writer.tempPath), directory.resolve(writer.key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                synchronized (this) {
+                    Long previous = entries.put(writer.key, size);
+                    currentSize += size - (previous != null ? previous : 0);
+                }
+                evict();
+                move.complete();
+            } catch (IOException e) {
+                move.fail(e);
+            }
+        }, false, ar -> {
+            if (ar.failed()) {
+                LOGGER.error("Cache file could not be committed.", ar.cause());
+                discard(writer);
+            }
+        });
+    }
+
+    public void discard(CacheWriter writer) {
+        vertx.fileSystem().delete(writer.tempPath, ar -> {
+            if (ar.failed()) {
+                LOGGER.error("Temporary cache file " + writer.tempPath + " could not be deleted.", ar.cause());
+            }
+        });
+    }
+
+    private void evict() {
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+            while (currentSize > maxSize && iterator.hasNext()) {
+                Map.Entry<String, Long> eldest = iterator.next();
+                currentSize -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                iterator.remove();
+            }
+        }
+        for (String key : evicted) {
+            try {
+                Files.deleteIfExists(directory.resolve(key));
+            } catch (IOException e) {
+                LOGGER.error("Evicted cache file " + key + " could not be deleted.", e);
+            }
+        }
+    }
+
+    private String key(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class CacheWriter {
+        private final String key;
+        private final String tempPath;
+        private final AsyncFile file;
+
+        private CacheWriter(String key, String tempPath, AsyncFile file) {
+            this.key = key;
+            this.tempPath = tempPath;
+            this.file = file;
+        }
+
+        public AsyncFile getFile() {
+            return file;
+        }
+    }
+
+    public static class CachedFile {
+        private final String path;
+        private final long size;
+
+        private CachedFile(String path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
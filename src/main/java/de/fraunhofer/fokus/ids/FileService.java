@@ -6,15 +6,22 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
-import io.vertx.ext.web.client.WebClientOptions;
-import io.vertx.ext.web.codec.BodyCodec;
 
 import java.net.MalformedURLException;
 import java.net.URI;
@@ -28,20 +35,51 @@ public class FileService {
 
     private final Logger LOGGER = LoggerFactory.getLogger(DataAssetService.class.getName());
 
+    private static final String RANGE = "Range";
+    private static final String IF_RANGE = "If-Range";
+    private static final CharSequence[] ENTITY_HEADERS = {HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_RANGE, HttpHeaders.ACCEPT_RANGES, HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED};
+
+    private final Vertx vertx;
     private final DatabaseService databaseService;
+    private final HttpClient httpClient;
     private final WebClient webClient;
+    private final UpstreamResilience resilience;
+    private final FileCache fileCache;
+    private final SharedDownloads sharedDownloads;
+    private final AccessInformationCache accessInformationCache;
+    private final int writeQueueMaxSize;
+    private final long transferIdleTimeout;
+
+    public FileService(Vertx vertx, JsonObject config, HttpClient httpClient, AccessInformationCache accessInformationCache) {
+        this(vertx, config, httpClient, accessInformationCache, null, null);
+    }
 
-    public FileService(Vertx vertx) {
-        WebClientOptions options = new WebClientOptions().setTrustAll(true);
-        this.webClient = WebClient.create(vertx, options);
-        this.databaseService = DatabaseService.createProxy(vertx, ApplicationConfig.DATABASE_SERVICE);
+    /**
+     * @param httpClient      upstream client created with {@link UpstreamClients#downloadOptions(JsonObject)}
+     * @param fileCache       local cache for downloaded distributions, may be null to always stream from upstream
+     * @param sharedDownloads coalescing of concurrent downloads of the same file, may be null to request every
+     *                        download from upstream
+     */
+    public FileService(Vertx vertx, JsonObject config, HttpClient httpClient, AccessInformationCache accessInformationCache, FileCache fileCache, SharedDownloads sharedDownloads) {
+        this.vertx = vertx;
+        this.httpClient = httpClient;
+        this.webClient = WebClient.wrap(httpClient);
+        this.resilience = new UpstreamResilience(vertx, config);
+        this.databaseService = LocalServices.lookup(vertx, DatabaseService.class, ApplicationConfig.DATABASE_SERVICE, DatabaseService::createProxy);
+        this.accessInformationCache = accessInformationCache;
+        this.fileCache = fileCache;
+        this.sharedDownloads = sharedDownloads;
+        this.writeQueueMaxSize = config.getInteger(ApplicationConfig.ENV_FILE_WRITE_QUEUE_MAX_SIZE, ApplicationConfig.DEFAULT_FILE_WRITE_QUEUE_MAX_SIZE);
+        this.transferIdleTimeout = config.getLong(ApplicationConfig.ENV_FILE_TRANSFER_IDLE_TIMEOUT, ApplicationConfig.DEFAULT_FILE_TRANSFER_IDLE_TIMEOUT);
     }
 
-    public void getFile(ResourceRequest resourceRequest, HttpServerResponse httpServerResponse) {
+    public void getFile(ResourceRequest resourceRequest, RoutingContext routingContext) {
+        HttpServerResponse httpServerResponse = routingContext.response();
         getAccessInformation(resultHandler -> {
             if (resultHandler.succeeded()) {
                 if (resultHandler.result() != null) {
-                    streamFile(resultHandler.result(), httpServerResponse);
+                    countStreamedBytes(routingContext, resourceRequest.getDataAsset().getResourceId());
+                    streamFile(resultHandler.result(), routingContext);
                 } else {
                     LOGGER.error("File is null");
                     httpServerResponse.setStatusCode(404).end();
@@ -53,26 +91,25 @@ public class FileService {
         }, resourceRequest.getDataAsset().getDatasetId(), resourceRequest.getDataAsset().getResourceId());
     }
 
-    public void getFileStream(JsonObject linkData, HttpServerResponse response){
+    public void getFileStream(JsonObject linkData, RoutingContext routingContext){
+        HttpServerResponse response = routingContext.response();
         getAccessInformation(result -> {
             if (result.succeeded()) {
                 if (result.result() != null) {
-                    response.putHeader("Transfer-Encoding", "chunked")
-                            .putHeader("content-type", "multipart/form-data;charset=UTF-8")
+                    countStreamedBytes(routingContext, linkData.getString("resourceId"));
+                    response.putHeader("content-type", "multipart/form-data;charset=UTF-8")
                             .putHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + linkData.getString("name") + "\"");
                     String link = result.result();
                     try{
                         URL url = new URL(link);
-                        webClient.getAbs(url.toString())
-                                .as(BodyCodec.pipe(response))
-                                .send(bufferFile -> {
-                                    if(bufferFile.succeeded()){
-                                        LOGGER.info("File sent to client. response status code is: " + bufferFile.result().statusCode());
-                                    }
-                                    else {
-                                        LOGGER.error("Some thing went wrong. Message is: " + bufferFile.cause().getMessage());
-                                    }
-                                });
+                        sendFile(url.toString(), routingContext, bufferFile -> {
+                            if(bufferFile.succeeded()){
+                                LOGGER.info("File sent to client. response status code is: " + bufferFile.result());
+                            }
+                            else {
+                                LOGGER.error("Some thing went wrong. Message is: " + bufferFile.cause().getMessage());
+                            }
+                        });
                     }
                     catch (Exception e){
                         LOGGER.error("error with solving link: " + e.getMessage());
@@ -89,14 +126,28 @@ public class FileService {
         }, linkData.getString("dataAssetId"), linkData.getString("resourceId"));
     }
 
+    /**
+     * Adds the bytes sent to the client, also of aborted transfers, to the counter of the distribution.
+     */
+    private void countStreamedBytes(RoutingContext routingContext, String distributionId) {
+        routingContext.addEndHandler(v -> AdapterMetrics.registry()
+                .counter(AdapterMetrics.FILE_STREAMED_BYTES, "distribution", String.valueOf(distributionId))
+                .increment(routingContext.response().bytesWritten()));
+    }
+
     private void getAccessInformation(Handler<AsyncResult<String>> resultHandler, String dataAssetId, String distributionId) {
-        databaseService.query("SELECT url from accessinformation WHERE datasetid = ? AND distributionid = ?", new JsonArray().add(dataAssetId).add(distributionId), handler -> {
+        String cachedUrl = accessInformationCache.get(dataAssetId, distributionId);
+        if (cachedUrl != null) {
+            resultHandler.handle(Future.succeededFuture(cachedUrl));
+            return;
+        }
+        databaseService.findAccessUrl(dataAssetId, distributionId, handler -> {
             if (handler.succeeded()) {
-                if (handler.result().size() == 1) {
-                    resultHandler.handle(Future.succeededFuture(handler.result().get(0).getString("url")));
+                if (handler.result() != null) {
+                    accessInformationCache.put(dataAssetId, distributionId, handler.result());
+                    resultHandler.handle(Future.succeededFuture(handler.result()));
                 } else {
-                    resultHandler.handle(Future.failedFuture("Retrieved either none or multiple results for distribution with id " + distributionId));
-                    //resultHandler.handle(Future.failedFuture("Retrieved either none or multiple results for distribution with id " + distributionId));
+                    resultHandler.handle(Future.failedFuture("Retrieved no result for distribution with id " + distributionId));
                 }
             } else {
                 LOGGER.error("File information could not be retrieved.", handler.cause());
@@ -105,12 +156,18 @@ public class FileService {
         });
     }
 
+    /**
+     * Probes the file with a HEAD request and resolves its name from the Content-Disposition header or the URL.
+     * Fails if upstream is unavailable, i.e. the probe still fails after retrying or the circuit of the host is open.
+     */
     public void tryFile(String urlString, Handler<AsyncResult<String>> resultHandler) {
         try {
             URL url = new URL(urlString);
-            webClient
+            resilience.<HttpResponse<Buffer>>execute(url.toString(), () -> Future.future(probe -> webClient
                     .headAbs(url.toString())
-                    .send(ar -> {
+                    .expect(UpstreamResilience.RETRYABLE_STATUS)
+                    .send(probe)))
+                    .onComplete(ar -> {
                         if (ar.succeeded()) {
                             String contentDisposition = ar.result().getHeader(HttpHeaders.CONTENT_DISPOSITION.toString());
 
@@ -127,7 +184,8 @@ public class FileService {
                                 resultHandler.handle(Future.succeededFuture(resolvePath(urlString)));
                             }
                         } else {
-                            resultHandler.handle(Future.succeededFuture(resolvePath(urlString)));
+                            LOGGER.error("File " + urlString + " could not be probed.", ar.cause());
+                            resultHandler.handle(Future.failedFuture(ar.cause()));
                         }
                     });
         } catch (MalformedURLException e) {
@@ -145,26 +203,263 @@ public class FileService {
         }
     }
 
-    public void streamFile(String urlString, HttpServerResponse response) {
+    public void streamFile(String urlString, RoutingContext routingContext) {
         try {
             URL url = new URL(urlString);
 
             LOGGER.info("Piping file from " + urlString);
-            response.putHeader("Transfer-Encoding", "chunked");
 
-            webClient
-                    .getAbs(url.toString())
-                    .as(BodyCodec.pipe(response))
-                    .send(ar -> {
-                        if (ar.succeeded()) {
-                            LOGGER.info("Received response with status code " + ar.result().statusCode());
-                        } else {
-                            LOGGER.error("Something went wrong " + ar.cause().getMessage());
-                        }
-                    });
+            sendFile(url.toString(), routingContext, ar -> {
+                if (ar.succeeded()) {
+                    LOGGER.info("Received response with status code " + ar.result());
+                } else {
+                    LOGGER.error("Something went wrong " + ar.cause().getMessage());
+                }
+            });
         } catch (MalformedURLException e) {
             LOGGER.error(e);
-            response.setStatusCode(404).end();
+            routingContext.response().setStatusCode(404).end();
+        }
+    }
+
+    /**
+     * Sends the file from the local cache if present, otherwise pipes it from upstream and fills the cache.
+     * Single byte ranges requested via the Range header are answered with 206 Partial Content.
+     *
+     * @param resultHandler receives the status code of the response sent to the client
+     */
+    private void sendFile(String url, RoutingContext routingContext, Handler<AsyncResult<Integer>> resultHandler) {
+        HttpServerRequest request = routingContext.request();
+        HttpServerResponse response = routingContext.response();
+        FileCache.CachedFile cachedFile = fileCache != null
+                ? fileCache.lookup(url)
+                : null;
+
+        if (cachedFile == null) {
+            pipeFile(url, routingContext, resultHandler);
+            return;
+        }
+
+        LOGGER.info("Serving file from cache " + cachedFile.getPath());
+        response.putHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        // the cache keeps no validators of the upstream file, so conditional range requests get the complete file
+        ByteRange range = request.getHeader(IF_RANGE) == null
+                ? ByteRange.parse(request.getHeader(RANGE), cachedFile.getSize())
+                : null;
+
+        if (range != null && !range.isSatisfiable()) {
+            response.setStatusCode(416)
+                    .putHeader(HttpHeaders.CONTENT_RANGE, range.contentRange())
+                    .end();
+            resultHandler.handle(Future.succeededFuture(416));
+            return;
+        }
+
+        int statusCode = range != null ? 206 : 200;
+        long offset = range != null ? range.getStart() : 0;
+        long length = range != null ? range.getContentLength() : Long.MAX_VALUE;
+        if (range != null) {
+            response.setStatusCode(statusCode)
+                    .putHeader(HttpHeaders.CONTENT_RANGE, range.contentRange());
+        }
+
+        TokenBucket bandwidth = AdmissionControl.bandwidth(routingContext);
+        if (bandwidth == null) {
+            response.sendFile(cachedFile.getPath(), offset, length, ar -> {
+                if (ar.succeeded()) {
+                    resultHandler.handle(Future.succeededFuture(statusCode));
+                } else {
+                    cachedFileFailed(url, cachedFile, routingContext, ar.cause(), resultHandler);
+                }
+            });
+            return;
+        }
+
+        // sendFile cannot be throttled, so the file is read like an upstream response
+        vertx.fileSystem().open(cachedFile.getPath(), new OpenOptions().setRead(true), open -> {
+            if (open.failed()) {
+                cachedFileFailed(url, cachedFile, routingContext, open.cause(), resultHandler);
+                return;
+            }
+            AsyncFile file = open.result()
+                    .setReadPos(offset)
+                    .setReadLength(range != null ? length : cachedFile.getSize());
+            file.pause();
+            if (range == null) {
+                response.putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(cachedFile.getSize()));
+            } else {
+                response.putHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(length));
+            }
+            FileTransfer transfer = new FileTransfer(vertx, request, writeQueueMaxSize, transferIdleTimeout, bandwidth)
+                    .onCancel(file::close);
+            routingContext.addEndHandler(end -> {
+                if (end.failed()) {
+                    transfer.clientClosed();
+                }
+            });
+            transfer.start(file, response, ar -> {
+                if (ar.succeeded()) {
+                    file.close();
+                }
+                resultHandler.handle(ar.map(statusCode));
+            });
+        });
+    }
+
+    private void cachedFileFailed(String url, FileCache.CachedFile cachedFile, RoutingContext routingContext, Throwable cause, Handler<AsyncResult<Integer>> resultHandler) {
+        HttpServerResponse response = routingContext.response();
+        if (!response.headWritten()) {
+            LOGGER.info("Cached file " + cachedFile.getPath() + " vanished, falling back to upstream.");
+            response.setStatusCode(200)
+                    .headers().remove(HttpHeaders.CONTENT_RANGE);
+            pipeFile(url, routingContext, resultHandler);
+        } else {
+            resultHandler.handle(Future.failedFuture(cause));
+        }
+    }
+
+    /**
+     * Pipes the file from upstream. Range and If-Range are forwarded, status code and entity headers of the
+     * upstream response are passed on to the client. Only complete 200 responses are written to the cache.
+     * Requests for the complete file share the download with concurrent requests for the same file.
+     */
+    private void pipeFile(String url, RoutingContext routingContext, Handler<AsyncResult<Integer>> resultHandler) {
+        HttpServerRequest request = routingContext.request();
+        HttpServerResponse response = routingContext.response();
+        String range = request.getHeader(RANGE);
+        if (range == null && sharedDownloads != null) {
+            pipeSharedFile(url, routingContext, resultHandler);
+            return;
+        }
+
+        HttpClientRequest upstreamRequest = httpClient.requestAbs(HttpMethod.GET, url)
+                .setFollowRedirects(true);
+        if (range != null) {
+            upstreamRequest.putHeader(RANGE, range);
+            if (request.getHeader(IF_RANGE) != null) {
+                upstreamRequest.putHeader(IF_RANGE, request.getHeader(IF_RANGE));
+            }
+        }
+
+        FileTransfer transfer = new FileTransfer(vertx, request, writeQueueMaxSize, transferIdleTimeout, AdmissionControl.bandwidth(routingContext))
+                .onCancel(upstreamRequest::reset);
+        routingContext.addEndHandler(end -> {
+            if (end.failed()) {
+                transfer.clientClosed();
+            }
+        });
+
+        upstreamRequest.handler(upstreamResponse -> {
+            int statusCode = upstreamResponse.statusCode();
+            if (statusCode == 416) {
+                copyHeader(upstreamResponse, response, HttpHeaders.CONTENT_RANGE);
+                response.setStatusCode(416).end();
+                resultHandler.handle(Future.succeededFuture(statusCode));
+                return;
+            }
+            if (statusCode != 200 && statusCode != 206) {
+                response.setStatusCode(statusCode == 404 ? 404 : 502).end();
+                resultHandler.handle(Future.failedFuture("Upstream responded with status code " + statusCode));
+                return;
+            }
+
+            response.setStatusCode(statusCode);
+            for (CharSequence header : ENTITY_HEADERS) {
+                copyHeader(upstreamResponse, response, header);
+            }
+            if (upstreamResponse.getHeader(HttpHeaders.CONTENT_LENGTH) == null) {
+                response.setChunked(true);
+            }
+
+            upstreamResponse.pause();
+            if (fileCache == null || statusCode != 200) {
+                transfer(transfer, upstreamResponse, response, null, resultHandler);
+            } else {
+                fileCache.open(url, cacheFile -> {
+                    transfer(transfer, upstreamResponse, response,
+                            cacheFile.succeeded() ? new CachingWriteStream(response, fileCache, cacheFile.result()) : null,
+                            resultHandler);
+                });
+            }
+        });
+        upstreamRequest.exceptionHandler(e -> {
+            if (transfer.sourceFailed(e)) {
+                return;
+            }
+            LOGGER.error("Upstream request failed.", e);
+            if (response.closed()) {
+                LOGGER.info("Upstream request cancelled, client closed the connection.");
+            } else if (!response.headWritten()) {
+                response.setStatusCode(502).end();
+            } else {
+                response.close();
+            }
+            resultHandler.handle(Future.failedFuture(e));
+        });
+        upstreamRequest.end();
+    }
+
+    /**
+     * Pipes the complete file from a download shared with concurrent requests for the same file, see
+     * {@link SharedDownloads}. The shared download writes the file to the cache.
+     */
+    private void pipeSharedFile(String url, RoutingContext routingContext, Handler<AsyncResult<Integer>> resultHandler) {
+        HttpServerResponse response = routingContext.response();
+        FileTransfer transfer = new FileTransfer(vertx, routingContext.request(), writeQueueMaxSize, transferIdleTimeout, AdmissionControl.bandwidth(routingContext));
+
+        SharedDownloads.Subscription subscription = sharedDownloads.open(url, httpClient, head -> {
+            if (head.failed()) {
+                if (!response.closed()) {
+                    response.setStatusCode(502).end();
+                }
+                resultHandler.handle(Future.failedFuture(head.cause()));
+                return;
+            }
+            SharedDownloads.Subscription download = head.result();
+            int statusCode = download.statusCode();
+            if (statusCode != 200) {
+                download.cancel();
+                response.setStatusCode(statusCode == 404 ? 404 : 502).end();
+                resultHandler.handle(Future.failedFuture("Upstream responded with status code " + statusCode));
+                return;
+            }
+
+            response.setStatusCode(statusCode);
+            for (CharSequence header : ENTITY_HEADERS) {
+                String value = download.getHeader(header);
+                if (value != null) {
+                    response.putHeader(header, value);
+                }
+            }
+            if (download.getHeader(HttpHeaders.CONTENT_LENGTH) == null) {
+                response.setChunked(true);
+            }
+            transfer.start(download, response, ar -> resultHandler.handle(ar.map(statusCode)));
+        });
+
+        transfer.onCancel(subscription::cancel);
+        routingContext.addEndHandler(end -> {
+            if (end.failed()) {
+                transfer.clientClosed();
+            }
+        });
+    }
+
+    private void transfer(FileTransfer transfer, HttpClientResponse upstreamResponse, HttpServerResponse response,
+                          CachingWriteStream cachingStream, Handler<AsyncResult<Integer>> resultHandler) {
+        transfer.start(upstreamResponse, cachingStream != null ? cachingStream : response, ar -> {
+            if (cachingStream != null) {
+                cachingStream.complete(ar.succeeded());
+            }
+            resultHandler.handle(ar.map(upstreamResponse.statusCode()));
+        });
+    }
+
+    private void copyHeader(HttpClientResponse from, HttpServerResponse to, CharSequence header) {
+        String value = from.getHeader(header);
+        if (value != null) {
+            to.putHeader(header, value);
         }
     }
 }
@@ -0,0 +1,232 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
+import io.vertx.core.streams.WriteStream;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a file, usually an upstream response, to the client with explicit flow control instead of a plain pipe:
+ * <ul>
+ * <li>the source is paused while the write queue of the client is above the high-water mark,</li>
+ * <li>the source is paused while the bandwidth of the consumer is used up, if it is limited,</li>
+ * <li>a client closing the connection cancels the source, e.g. the upstream request, also while waiting for the
+ * upstream response,</li>
+ * <li>a transfer without progress for the idle timeout, because either the client or upstream stalls, is aborted
+ * and both connections are released.</li>
+ * </ul>
+ * Throughput, stalls and aborted transfers are recorded in {@link AdapterMetrics}.
+ */
+public class FileTransfer {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(FileTransfer.class.getName());
+
+    private final Vertx vertx;
+    private final HttpServerRequest request;
+    private final HttpServerResponse response;
+    private final int writeQueueMaxSize;
+    private final long idleTimeout;
+    private final TokenBucket bandwidth;
+    private Runnable cancel = () -> {
+    };
+    private ReadStream<Buffer> source;
+    private WriteStream<Buffer> target;
+    private Handler<AsyncResult<Void>> resultHandler;
+    private long started;
+    private long lastProgress;
+    private long stalledSince;
+    private boolean throttled;
+    private long bytes;
+    private long idleTimer = -1;
+    private boolean done;
+
+    /**
+     * @param writeQueueMaxSize high-water mark of the client write queue in bytes
+     * @param idleTimeout       time in milliseconds after which a transfer without progress is aborted, 0 disables it
+     * @param bandwidth         bandwidth limit of the consumer, may be null
+     */
+    public FileTransfer(Vertx vertx, HttpServerRequest request, int writeQueueMaxSize, long idleTimeout, TokenBucket bandwidth) {
+        this.vertx = vertx;
+        this.request = request;
+        this.response = request.response();
+        this.writeQueueMaxSize = writeQueueMaxSize;
+        this.idleTimeout = idleTimeout;
+        this.bandwidth = bandwidth;
+    }
+
+    /**
+     * @param cancel stops the source if the transfer is aborted, e.g. resets the upstream request
+     */
+    public FileTransfer onCancel(Runnable cancel) {
+        this.cancel = cancel;
+        return this;
+    }
+
+    /**
+     * Starts the transfer of the body, the source may be paused.
+     *
+     * @param target        stream the body is written to, the response itself or a stream wrapping it
+     * @param resultHandler succeeds once the complete body is written to the client
+     */
+    public void start(ReadStream<Buffer> source, WriteStream<Buffer> target, Handler<AsyncResult<Void>> resultHandler) {
+        this.source = source;
+        this.target = target;
+        this.resultHandler = resultHandler;
+        this.started = System.nanoTime();
+        this.lastProgress = started;
+        target.setWriteQueueMaxSize(writeQueueMaxSize);
+        source.exceptionHandler(this::sourceFailed);
+        source.handler(this::write);
+        source.endHandler(v -> end());
+        if (idleTimeout > 0) {
+            idleTimer = vertx.setPeriodic(Math.max(1, idleTimeout / 4), timer -> checkProgress());
+        }
+        source.resume();
+    }
+
+    /**
+     * Aborts the transfer because the client closed the connection. Before the transfer is started only the source
+     * is cancelled.
+     */
+    public void clientClosed() {
+        if (resultHandler == null) {
+            cancel.run();
+        } else {
+            abort("client_closed", "Client closed the connection.");
+        }
+    }
+
+    /**
+     * Aborts a started transfer, e.g. if the upstream request failed.
+     *
+     * @return false if the transfer was not started yet, then the failure is left to the caller
+     */
+    public boolean sourceFailed(Throwable cause) {
+        if (resultHandler == null) {
+            return false;
+        }
+        abort("upstream_error", cause.toString());
+        return true;
+    }
+
+    private void write(Buffer buffer) {
+        if (done) {
+            return;
+        }
+        lastProgress = System.nanoTime();
+        bytes += buffer.length();
+        target.write(buffer);
+        if (target.writeQueueFull()) {
+            source.pause();
+            stalledSince = lastProgress;
+            target.drainHandler(v -> drained());
+        }
+        long delay = bandwidth != null ? bandwidth.take(buffer.length()) : 0;
+        if (delay > 0) {
+            source.pause();
+            throttled = true;
+            vertx.setTimer(delay, timer -> {
+                throttled = false;
+                lastProgress = System.nanoTime();
+                resume();
+            });
+        }
+    }
+
+    private void drained() {
+        if (stalledSince == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        AdapterMetrics.timer(AdapterMetrics.FILE_TRANSFER_STALLS).record(now - stalledSince, TimeUnit.NANOSECONDS);
+        stalledSince = 0;
+        lastProgress = now;
+        resume();
+    }
+
+    private void resume() {
+        if (!done && !throttled && stalledSince == 0) {
+            source.resume();
+        }
+    }
+
+    private void end() {
+        if (!finish()) {
+            return;
+        }
+        target.end(ar -> {
+            if (ar.succeeded()) {
+                long duration = System.nanoTime() - started;
+                AdapterMetrics.registry().summary(AdapterMetrics.FILE_TRANSFER_THROUGHPUT)
+                        .record(bytes * 1e9 / Math.max(1, duration));
+                resultHandler.handle(Future.succeededFuture());
+            } else {
+                AdapterMetrics.registry().counter(AdapterMetrics.FILE_TRANSFER_ABORTS, "reason", "client_closed").increment();
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    private void checkProgress() {
+        // waiting for bandwidth is no stall
+        if (!throttled && System.nanoTime() - lastProgress > TimeUnit.MILLISECONDS.toNanos(idleTimeout)) {
+            // a paused source means the client does not read, otherwise upstream does not send
+            abort(stalledSince > 0 ? "client_idle" : "upstream_idle", "No progress for " + idleTimeout + " ms after " + bytes + " bytes.");
+        }
+    }
+
+    private void abort(String reason, String message) {
+        if (!finish()) {
+            return;
+        }
+        LOGGER.info("Transfer aborted (" + reason + "): " + message);
+        AdapterMetrics.registry().counter(AdapterMetrics.FILE_TRANSFER_ABORTS, "reason", reason).increment();
+        // resets the HTTP/2 stream or closes the HTTP/1.1 connection, so that upstream stops sending
+        cancel.run();
+        if (!response.closed()) {
+            if (!response.headWritten()) {
+                // drops the headers describing the file, but keeps the identity marker of the route, otherwise the
+                // compression of the server would encode the error response
+                String contentEncoding = response.headers().get(HttpHeaders.CONTENT_ENCODING);
+                response.headers().clear();
+                if (contentEncoding != null) {
+                    response.putHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+                }
+                response.setStatusCode(reason.endsWith("idle") ? 504 : 502).end();
+            } else if (request.version() == HttpVersion.HTTP_2) {
+                // resetting the stream signals the incomplete transfer to the client
+                response.reset();
+            } else {
+                // closing the connection signals the incomplete transfer to the client, response.close() is not
+                // used since it skips the close handlers of the response, e.g. the end handlers of the route
+                request.connection().close();
+            }
+        }
+        resultHandler.handle(Future.failedFuture(message));
+    }
+
+    /**
+     * @return true for the first call, i.e. if the transfer was still running
+     */
+    private boolean finish() {
+        if (done) {
+            return false;
+        }
+        done = true;
+        if (idleTimer >= 0) {
+            vertx.cancelTimer(idleTimer);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,141 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.messages.DataAssetCreateMessage;
+import de.fraunhofer.fokus.ids.messages.ResourceRequest;
+import io.vertx.core.*;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.Router;
+import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.BodyHandler;
+import io.vertx.micrometer.PrometheusScrapingHandler;
+import org.apache.http.entity.ContentType;
+
+import java.util.Map;
+
+/**
+ * HTTP layer of the adapter, deployed once per event loop. Every instance owns its router, services and upstream
+ * HTTP client, the state shared between instances is handed in by {@link MainVerticle}.
+ */
+public class HttpServerVerticle extends AbstractVerticle {
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpServerVerticle.class.getName());
+
+    private final AccessInformationCache accessInformationCache;
+    private final FileCache fileCache;
+    private final SharedDownloads sharedDownloads;
+    private final AdmissionControl admissionControl;
+    private final RecordSyncService recordSyncService;
+    private final PrefetchService prefetchService;
+    private final Map<String, StaticResponse> staticResponses;
+
+    /**
+     * @param accessInformationCache cache shared by all instances
+     * @param fileCache              cache shared by all instances, may be null if the file cache is disabled
+     * @param sharedDownloads        download coalescing shared by all instances, may be null if it is disabled
+     * @param admissionControl       admission control of the file routes shared by all instances
+     * @param recordSyncService      record sync shared by all instances
+     * @param prefetchService        prefetch shared by all instances
+     * @param staticResponses        responses of the static endpoints by route path shared by all instances
+     */
+    public HttpServerVerticle(AccessInformationCache accessInformationCache, FileCache fileCache, SharedDownloads sharedDownloads, AdmissionControl admissionControl, RecordSyncService recordSyncService, PrefetchService prefetchService, Map<String, StaticResponse> staticResponses) {
+        this.accessInformationCache = accessInformationCache;
+        this.fileCache = fileCache;
+        this.sharedDownloads = sharedDownloads;
+        this.admissionControl = admissionControl;
+        this.recordSyncService = recordSyncService;
+        this.prefetchService = prefetchService;
+        this.staticResponses = staticResponses;
+    }
+
+    @Override
+    public void start(Promise<Void> startPromise) {
+        HttpClient upstreamClient = vertx.createHttpClient(UpstreamClients.downloadOptions(config()));
+        FileService fileService = new FileService(vertx, config(), upstreamClient, accessInformationCache, fileCache, sharedDownloads);
+        DataAssetService dataAssetService = new DataAssetService(vertx, config(), accessInformationCache, fileService, recordSyncService, prefetchService);
+        ArchiveService archiveService = new ArchiveService(vertx, config(), upstreamClient, fileCache);
+        DataAssetBatchService dataAssetBatchService = new DataAssetBatchService(vertx, config(), dataAssetService);
+
+        Router router = Router.router(vertx);
+        router.route().handler(AdapterMetrics.routeTimer());
+        router.route().handler(BodyHandler.create());
+
+        router.post("/create").handler(AdapterMetrics::routePath).handler(routingContext ->
+                dataAssetService.createDataAsset(Json.decodeValue(routingContext.getBodyAsJson().toString(), DataAssetCreateMessage.class), reply ->
+                        reply(reply, routingContext.response())));
+
+        router.post("/create/batch").handler(AdapterMetrics::routePath).handler(routingContext ->
+                dataAssetBatchService.createDataAssets(Json.decodeValue(routingContext.getBodyAsJson().toString(), DataAssetCreateMessage.class), routingContext.response()));
+
+        router.get("/delete/:id").handler(AdapterMetrics::routePath).handler(routingContext ->
+                dataAssetService.deleteDataAsset(routingContext.request().getParam("id"), reply ->
+                        reply(reply, routingContext.response())));
+
+        router.post("/getFile").handler(AdapterMetrics::routePath).handler(HttpServerVerticle::uncompressed).handler(admissionControl).handler(routingContext ->
+                fileService.getFile(Json.decodeValue(routingContext.getBodyAsString(), ResourceRequest.class), routingContext));
+
+        router.post("/resource").handler(AdapterMetrics::routePath).handler(HttpServerVerticle::uncompressed).handler(admissionControl).handler(routingContext ->
+                fileService.getFileStream(routingContext.getBodyAsJson(), routingContext));
+
+        router.get("/archive/:id").handler(AdapterMetrics::routePath).handler(HttpServerVerticle::uncompressed).handler(admissionControl).handler(routingContext ->
+                archiveService.getArchive(routingContext.request().getParam("id"), routingContext));
+
+        // built once by MainVerticle, the manager polls these endpoints
+        staticResponses.forEach((path, response) -> router.route(path).handler(AdapterMetrics::routePath).handler(response));
+
+        router.get("/metrics").handler(AdapterMetrics::routePath).handler(PrometheusScrapingHandler.create());
+
+        int port = config().getInteger(ApplicationConfig.ENV_MANAGER_PORT, ApplicationConfig.DEFAULT_ZENODO_PORT);
+        vertx.createHttpServer(serverOptions(config()))
+                .requestHandler(router)
+                .listen(port, listen -> {
+                    if (listen.succeeded()) {
+                        startPromise.complete();
+                    } else {
+                        LOGGER.error("HTTP server could not be started on port " + port + ".", listen.cause());
+                        startPromise.fail(listen.cause());
+                    }
+                });
+    }
+
+    /**
+     * Options of the server, JSON responses are compressed if the client accepts gzip or deflate. Whether HTTP/2 is
+     * accepted without TLS (h2c) is decided by the {@link AdapterLauncher}.
+     */
+    private static HttpServerOptions serverOptions(JsonObject config) {
+        HttpServerOptions options = new HttpServerOptions()
+                .setCompressionSupported(config.getBoolean(ApplicationConfig.ENV_HTTP_COMPRESSION, ApplicationConfig.DEFAULT_HTTP_COMPRESSION))
+                .setCompressionLevel(config.getInteger(ApplicationConfig.ENV_HTTP_COMPRESSION_LEVEL, ApplicationConfig.DEFAULT_HTTP_COMPRESSION_LEVEL))
+                .setTcpNoDelay(config.getBoolean(ApplicationConfig.ENV_HTTP_SERVER_TCP_NODELAY, ApplicationConfig.DEFAULT_HTTP_SERVER_TCP_NODELAY))
+                .setAcceptBacklog(config.getInteger(ApplicationConfig.ENV_HTTP_SERVER_ACCEPT_BACKLOG, ApplicationConfig.DEFAULT_HTTP_SERVER_ACCEPT_BACKLOG));
+        return options;
+    }
+
+    /**
+     * Excludes the response from compression. Files are mostly compressed already (zip, parquet), compressing them
+     * would cost CPU for little gain, hide the Content-Length and break byte ranges.
+     */
+    private static void uncompressed(RoutingContext routingContext) {
+        routingContext.response().putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY);
+        routingContext.next();
+    }
+
+    private void reply(AsyncResult result, HttpServerResponse response) {
+        if (result.succeeded()) {
+            if (result.result() != null) {
+                String entity = result.result().toString();
+                response.putHeader("content-type", ContentType.APPLICATION_JSON.toString());
+                response.end(entity);
+            } else {
+                response.setStatusCode(404).end();
+            }
+        } else {
+            response.setStatusCode(404).end();
+        }
+    }
+}
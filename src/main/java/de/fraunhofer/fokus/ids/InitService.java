@@ -5,31 +5,37 @@ import io.vertx.config.ConfigRetriever;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.*;
-import io.vertx.core.json.JsonArray;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 
 import static de.fraunhofer.fokus.ids.ApplicationConfig.*;
 
 public class InitService {
 
+    private static final int REGISTRATION_ATTEMPTS = 8;
+
     private final Logger LOGGER = LoggerFactory.getLogger(InitService.class.getName());
     private final DatabaseService databaseService;
 
     public InitService(Vertx vertx, Handler<AsyncResult<Void>> resultHandler) {
-        this.databaseService = DatabaseService.createProxy(vertx, DATABASE_SERVICE);
+        this.databaseService = LocalServices.lookup(vertx, DatabaseService.class, DATABASE_SERVICE, DatabaseService::createProxy);
 
         Promise<Void> dbPromise = Promise.promise();
         Future<Void> dbFuture = dbPromise.future();
-        initDB(dbFuture);
+        initDB(vertx, dbFuture);
 
         Promise<Void> configPromise = Promise.promise();
         Future<Void> configFuture = configPromise.future();
         register(vertx, configFuture);
 
-        CompositeFuture.all(dbFuture, configFuture).onComplete(handler -> {
+        // the adapter keeps serving when the registration fails, it can still be registered at the connector later
+        Future<Void> registered = configFuture.otherwise((Void) null);
+
+        CompositeFuture.all(dbFuture, registered).onComplete(handler -> {
             if (handler.succeeded()) {
                 resultHandler.handle(Future.succeededFuture());
             } else {
@@ -39,14 +45,24 @@ public class InitService {
         });
     }
 
-    private void initDB(Handler<AsyncResult<Void>> resultHandler) {
-        databaseService.update("CREATE TABLE IF NOT EXISTS accessinformation (created_at, updated_at, datasetid, distributionid, url)", new JsonArray(), handler -> {
-            if (handler.succeeded()) {
-                resultHandler.handle(Future.succeededFuture());
-            } else {
-                LOGGER.error("Table creation failed.", handler.cause());
-                resultHandler.handle(Future.failedFuture(handler.cause()));
+    private void initDB(Vertx vertx, Handler<AsyncResult<Void>> resultHandler) {
+        ConfigRetrieverOptions options = new ConfigRetrieverOptions()
+                .addStore(new ConfigStoreOptions()
+                        .setType("env"));
+
+        ConfigRetriever.create(vertx, options).getConfig(ar -> {
+            if (ar.failed()) {
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+                return;
             }
+            new MigrationService(databaseService, ar.result().getString(ENV_DB_BACKEND, DEFAULT_DB_BACKEND)).migrate(handler -> {
+                if (handler.succeeded()) {
+                    resultHandler.handle(Future.succeededFuture());
+                } else {
+                    LOGGER.error("Table creation failed.", handler.cause());
+                    resultHandler.handle(Future.failedFuture(handler.cause()));
+                }
+            });
         });
     }
 
@@ -64,7 +80,12 @@ public class InitService {
                                 .put("port", ar.result().getInteger(ENV_MANAGER_PORT, DEFAULT_ZENODO_PORT)));
 
                 WebClient webClient = WebClient.create(vertx);
-                establishConnection(3, webClient,
+                // the connector may still be starting, so registration is retried for longer and without circuit breaker
+                UpstreamResilience resilience = new UpstreamResilience(vertx, REGISTRATION_ATTEMPTS,
+                        ar.result().getLong(ENV_UPSTREAM_RETRY_BASE_DELAY, DEFAULT_UPSTREAM_RETRY_BASE_DELAY),
+                        ar.result().getLong(ENV_UPSTREAM_RETRY_MAX_DELAY, DEFAULT_UPSTREAM_RETRY_MAX_DELAY),
+                        0, 0);
+                establishConnection(resilience, webClient,
                         ar.result().getInteger(ENV_MANAGER_PORT, DEFAULT_MANAGER_PORT),
                         ar.result().getString(ENV_MANAGER_HOST, DEFAULT_MANAGER_HOST),
                         registration, resultHandler);
@@ -74,19 +95,18 @@ public class InitService {
         });
     }
 
-    private void establishConnection(int i, WebClient webClient, int port, String host, JsonObject registration, Handler<AsyncResult<Void>> resultHandler) {
-        if (i == 0) {
-            resultHandler.handle(Future.failedFuture("Connection refused"));
-        } else {
-            webClient
-                    .post(port, host, "/register")
-                    .sendJsonObject(registration, ar -> {
-                        if (ar.succeeded()) {
-                            resultHandler.handle(Future.succeededFuture());
-                        } else {
-                            establishConnection(i - 1, webClient, port, host, registration, resultHandler);
-                        }
-                    });
-        }
+    private void establishConnection(UpstreamResilience resilience, WebClient webClient, int port, String host, JsonObject registration, Handler<AsyncResult<Void>> resultHandler) {
+        resilience.<HttpResponse<Buffer>>execute("http://" + host + ":" + port + "/register", () -> Future.future(attempt -> webClient
+                .post(port, host, "/register")
+                .expect(UpstreamResilience.RETRYABLE_STATUS)
+                .sendJsonObject(registration, attempt)))
+                .onComplete(ar -> {
+                    if (ar.succeeded()) {
+                        resultHandler.handle(Future.succeededFuture());
+                    } else {
+                        LOGGER.error("Registration at " + host + ":" + port + " failed.", ar.cause());
+                        resultHandler.handle(Future.failedFuture(ar.cause()));
+                    }
+                });
     }
 }
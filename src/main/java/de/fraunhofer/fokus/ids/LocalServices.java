@@ -0,0 +1,94 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.function.BiFunction;
+
+/**
+ * Registry of the service implementations deployed in this JVM. Callers in the same JVM invoke a registered
+ * implementation directly instead of going through its event bus proxy, which saves encoding and decoding every
+ * request and result as JSON. Services not registered here, e.g. deployed on another node of a cluster, are
+ * still reached via the event bus proxy.
+ */
+public final class LocalServices {
+
+    private static final String MAP_NAME = "local-services";
+
+    private LocalServices() {
+    }
+
+    public static void register(Vertx vertx, String address, Object service) {
+        services(vertx).put(address, new Registration(service));
+    }
+
+    public static void unregister(Vertx vertx, String address) {
+        services(vertx).remove(address);
+    }
+
+    /**
+     * @param proxyFactory creates the event bus proxy if no implementation is registered for the address
+     * @return the implementation registered for the address, delivering its results on the caller's context
+     * like the proxy does, or the event bus proxy
+     */
+    public static <T> T lookup(Vertx vertx, Class<T> type, String address, BiFunction<Vertx, String, T> proxyFactory) {
+        Registration registration = services(vertx).get(address);
+        if (registration == null || !type.isInstance(registration.service)) {
+            return proxyFactory.apply(vertx, address);
+        }
+        Object service = registration.service;
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (args != null && args.length > 0 && args[args.length - 1] instanceof Handler) {
+                args[args.length - 1] = onCallerContext(asResultHandler(args[args.length - 1]));
+            }
+            try {
+                Object result = method.invoke(service, args);
+                // keep fluent calls on the wrapper
+                return result == service ? proxy : result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Handler<AsyncResult<Object>> asResultHandler(Object handler) {
+        return (Handler<AsyncResult<Object>>) handler;
+    }
+
+    private static Handler<AsyncResult<Object>> onCallerContext(Handler<AsyncResult<Object>> resultHandler) {
+        Context context = Vertx.currentContext();
+        if (context == null) {
+            return resultHandler;
+        }
+        return result -> {
+            if (Vertx.currentContext() == context) {
+                resultHandler.handle(result);
+            } else {
+                context.runOnContext(v -> resultHandler.handle(result));
+            }
+        };
+    }
+
+    private static LocalMap<String, Registration> services(Vertx vertx) {
+        return vertx.sharedData().getLocalMap(MAP_NAME);
+    }
+
+    /**
+     * Local maps only accept immutable or {@link Shareable} values. The service is shared on purpose, the
+     * implementations are safe to be called from any context.
+     */
+    private static final class Registration implements Shareable {
+        private final Object service;
+
+        private Registration(Object service) {
+            this.service = service;
+        }
+    }
+}
@@ -1,167 +1,159 @@
 package de.fraunhofer.fokus.ids;
 
 import de.fraunhofer.fokus.ids.enums.FileType;
-import de.fraunhofer.fokus.ids.messages.DataAssetCreateMessage;
-import de.fraunhofer.fokus.ids.messages.ResourceRequest;
 import de.fraunhofer.fokus.ids.services.database.DatabaseServiceVerticle;
 import de.fraunhofer.fokus.ids.services.zenodo.ZenodoServiceVerticle;
 import io.vertx.config.ConfigRetriever;
+import io.vertx.config.ConfigRetrieverOptions;
+import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.*;
-import io.vertx.core.http.HttpServer;
-import io.vertx.core.http.HttpServerResponse;
-import io.vertx.core.json.Json;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.ext.web.Router;
-import io.vertx.ext.web.handler.BodyHandler;
-import org.apache.http.entity.ContentType;
 
-import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
+/**
+ * Entry point of the adapter. Performs the one-time startup work, such as the database migration and the
+ * registration, and then deploys the HTTP layer as {@link HttpServerVerticle} instances sharing the port.
+ */
 public class MainVerticle extends AbstractVerticle {
     private static final Logger LOGGER = LoggerFactory.getLogger(MainVerticle.class.getName());
-    private Router router;
-    private DataAssetService dataAssetService;
-    private FileService fileService;
-    private int zenodoPort;
 
     @Override
     public void start(Promise<Void> startPromise) {
-        this.router = Router.router(vertx);
-        this.dataAssetService = new DataAssetService(vertx);
-        this.fileService = new FileService(vertx);
-
-        startVerticle(DatabaseServiceVerticle.class)
-                .compose(ar -> startVerticle(ZenodoServiceVerticle.class))
+        startVerticle(DatabaseServiceVerticle.class, true)
+                // the Zenodo service only does non-blocking I/O, and HTTP/2 clients cannot be used on worker threads
+                .compose(ar -> startVerticle(ZenodoServiceVerticle.class, false))
                 .compose(ar -> Future.future(initService -> new InitService(vertx, init -> {
                     if (init.succeeded()) {
                         LOGGER.info("Initialization complete.");
                         initService.complete();
                     } else {
                         LOGGER.error("Initialization failed.", init.cause());
-                        initService.complete();
+                        initService.fail(init.cause());
                     }
                 })))
-                .compose(ar -> createHttpServer())
-                .onSuccess(success -> startPromise.complete())
+                .compose(ar -> retrieveConfig())
+                .compose(this::startHttpServers)
+                .onSuccess(success -> {
+                    LOGGER.info("Zenodo adapter successfully started.");
+                    startPromise.complete();
+                })
                 .onFailure(startPromise::fail);
     }
 
-    private Future<Void> createHttpServer() {
-    	
+    private Future<JsonObject> retrieveConfig() {
+        ConfigRetrieverOptions options = new ConfigRetrieverOptions()
+                .addStore(new ConfigStoreOptions()
+                        .setType("sys"))
+                .addStore(new ConfigStoreOptions()
+                        .setType("env"));
 
-    	ConfigRetriever retriever = ConfigRetriever.create(vertx);
-        retriever.getConfig(ar -> {
-            if (ar.succeeded()) {
-                JsonObject env = ar.result();
-                zenodoPort = env.getInteger(ApplicationConfig.ENV_MANAGER_PORT, ApplicationConfig.DEFAULT_ZENODO_PORT);
-                
-            } else {
-                LOGGER.error("Config could not be retrieved.");
-            }
-        });
-    	
-        return Future.future(spawnServer -> {
-            HttpServer server = vertx.createHttpServer();
-            router.route().handler(BodyHandler.create());
-
-            router.post("/create").handler(routingContext ->
-                    dataAssetService.createDataAsset(Json.decodeValue(routingContext.getBodyAsJson().toString(), DataAssetCreateMessage.class), reply ->
-                            reply(reply, routingContext.response())));
-
-            router.get("/delete/:id").handler(routingContext ->
-                    dataAssetService.deleteDataAsset(routingContext.request().getParam("id"), reply ->
-                            reply(reply, routingContext.response())));
-
-            router.post("/getFile").handler(routingContext ->
-                    fileService.getFile(Json.decodeValue(routingContext.getBodyAsString(), ResourceRequest.class), routingContext.response()));
-
-            router.post("/resource").handler(routingContext ->
-                    fileService.getFileStream(routingContext.getBodyAsJson(), routingContext.response()));
-
-            router.route("/supported")
-                    .handler(routingContext ->
-                            supported(result -> reply(result, routingContext.response()))
-                    );
-
-            router.route("/getDataAssetFormSchema")
-                    .handler(routingContext ->
-                            getDataAssetFormSchema(result -> reply(result, routingContext.response()))
-                    );
-
-            router.route("/getDataSourceFormSchema")
-                    .handler(routingContext ->
-                            getDataSourceFormSchema(result -> reply(result, routingContext.response()))
-                    );
-
-
-            server.requestHandler(router)
-                    .listen(zenodoPort, listen -> {
-                        if (listen.succeeded()) {
-                            spawnServer.complete();
-                        } else {
-                            spawnServer.fail(listen.cause());
-                        }
-                    });
-            LOGGER.info("Zenodo adapter successfully started.");
-        });
+        return Future.future(retrieveConfig -> ConfigRetriever.create(vertx, options).getConfig(retrieveConfig));
     }
 
-    private void supported(Handler<AsyncResult<String>> handler) {
-        handler.handle(Future.succeededFuture(new JsonObject()
-                .put("supported", new JsonArray().add(FileType.JSON))
-                .toString()
-        ));
+    private Future<Void> startHttpServers(JsonObject config) {
+        AccessInformationCache accessInformationCache = new AccessInformationCache(
+                config.getInteger(ApplicationConfig.ENV_ACCESS_INFORMATION_CACHE_SIZE, ApplicationConfig.DEFAULT_ACCESS_INFORMATION_CACHE_SIZE),
+                config.getLong(ApplicationConfig.ENV_ACCESS_INFORMATION_CACHE_TTL, ApplicationConfig.DEFAULT_ACCESS_INFORMATION_CACHE_TTL));
+        AdmissionControl admissionControl = new AdmissionControl(vertx, config);
+        RecordSyncService recordSyncService = new RecordSyncService(vertx, config, accessInformationCache);
+        recordSyncService.start();
+
+        FileCache fileCache = new FileCache(vertx,
+                config.getString(ApplicationConfig.ENV_FILE_CACHE_DIR, ApplicationConfig.DEFAULT_FILE_CACHE_DIR),
+                config.getLong(ApplicationConfig.ENV_FILE_CACHE_MAX_SIZE, ApplicationConfig.DEFAULT_FILE_CACHE_MAX_SIZE));
+
+        Future<Map<String, StaticResponse>> staticResponses = staticResponses(config);
+
+        return Future.<Void>future(init -> fileCache.init(init))
+                .map(fileCache)
+                .otherwise(cause -> {
+                    LOGGER.error("File cache could not be initialized, file cache disabled.", cause);
+                    return null;
+                })
+                .compose(sharedFileCache -> staticResponses.compose(responses -> {
+                    SharedDownloads sharedDownloads = config.getLong(ApplicationConfig.ENV_DOWNLOAD_COALESCING_BUFFER_SIZE, ApplicationConfig.DEFAULT_DOWNLOAD_COALESCING_BUFFER_SIZE) > 0
+                            ? new SharedDownloads(config, sharedFileCache)
+                            : null;
+                    PrefetchService prefetchService = new PrefetchService(vertx, config, sharedFileCache);
+                    prefetchService.start();
+                    DeploymentOptions deploymentOptions = new DeploymentOptions()
+                            .setConfig(config)
+                            .setInstances(config.getInteger(ApplicationConfig.ENV_HTTP_SERVER_INSTANCES, ApplicationConfig.DEFAULT_HTTP_SERVER_INSTANCES));
+
+                    return Future.<String>future(deploy -> vertx.deployVerticle(() -> new HttpServerVerticle(accessInformationCache, sharedFileCache, sharedDownloads, admissionControl, recordSyncService, prefetchService, responses), deploymentOptions, deploy))
+                            .onSuccess(id -> LOGGER.info("Deployed " + deploymentOptions.getInstances() + " HTTP server instances."))
+                            .mapEmpty();
+                }));
     }
 
-    private void getDataAssetFormSchema(Handler<AsyncResult<String>> handler) {
-        handler.handle(Future.succeededFuture(new JsonObject()
-                .put("type", "object")
-                .put("properties", new JsonObject()
-                        .put("recordId", new JsonObject()
-                                .put("type", "string")
-                                .put("ui", new JsonObject()
-                                        .put("label", "Record ID")
-                                        .put("placeholder", "1234567"))))
-                .toString()));
-    }
-
-    private void getDataSourceFormSchema(Handler<AsyncResult<String>> handler) {
-        handler.handle(Future.succeededFuture(new JsonObject()
-                .put("type", "object")
-                .put("properties", new JsonObject()
-                        .put("zenodoApiUrl", new JsonObject()
-                                .put("type", "string")
-                                .put("ui", new JsonObject()
-                                        .put("label", "Zenodo API URL")
-                                        .put("placeholder", "https://zenodo.org/api/records")))
-                        .put("accessToken", new JsonObject()
-                                .put("type", "string")
-                                .put("ui", new JsonObject()
-                                        .put("label", "Access Token")
-                                        .put("placeholder", "myToken"))))
-                .toString()));
+    /**
+     * Builds the responses of the endpoints polled by the manager once, the form schemas are read from the configured
+     * files if set.
+     *
+     * @return static responses by route path
+     */
+    private Future<Map<String, StaticResponse>> staticResponses(JsonObject config) {
+        long maxAge = config.getLong(ApplicationConfig.ENV_STATIC_RESPONSE_MAX_AGE, ApplicationConfig.DEFAULT_STATIC_RESPONSE_MAX_AGE);
+        Future<JsonObject> dataAssetFormSchema = formSchema(config.getString(ApplicationConfig.ENV_DATA_ASSET_FORM_SCHEMA_FILE, ApplicationConfig.DEFAULT_DATA_ASSET_FORM_SCHEMA_FILE),
+                new JsonObject()
+                        .put("type", "object")
+                        .put("properties", new JsonObject()
+                                .put("recordId", new JsonObject()
+                                        .put("type", "string")
+                                        .put("ui", new JsonObject()
+                                                .put("label", "Record ID")
+                                                .put("placeholder", "1234567")))));
+        Future<JsonObject> dataSourceFormSchema = formSchema(config.getString(ApplicationConfig.ENV_DATA_SOURCE_FORM_SCHEMA_FILE, ApplicationConfig.DEFAULT_DATA_SOURCE_FORM_SCHEMA_FILE),
+                new JsonObject()
+                        .put("type", "object")
+                        .put("properties", new JsonObject()
+                                .put("zenodoApiUrl", new JsonObject()
+                                        .put("type", "string")
+                                        .put("ui", new JsonObject()
+                                                .put("label", "Zenodo API URL")
+                                                .put("placeholder", "https://zenodo.org/api/records")))
+                                .put("accessToken", new JsonObject()
+                                        .put("type", "string")
+                                        .put("ui", new JsonObject()
+                                                .put("label", "Access Token")
+                                                .put("placeholder", "myToken")))));
+
+        return CompositeFuture.all(dataAssetFormSchema, dataSourceFormSchema).map(schemas -> {
+            Map<String, StaticResponse> responses = new LinkedHashMap<>();
+            responses.put("/supported", new StaticResponse(new JsonObject()
+                    .put("supported", new JsonArray().add(FileType.JSON)), maxAge));
+            responses.put("/getDataAssetFormSchema", new StaticResponse(dataAssetFormSchema.result(), maxAge));
+            responses.put("/getDataSourceFormSchema", new StaticResponse(dataSourceFormSchema.result(), maxAge));
+            return responses;
+        });
     }
 
-    private void reply(AsyncResult result, HttpServerResponse response) {
-        if (result.succeeded()) {
-            if (result.result() != null) {
-                String entity = result.result().toString();
-                response.putHeader("content-type", ContentType.APPLICATION_JSON.toString());
-                response.end(entity);
-            } else {
-                response.setStatusCode(404).end();
-            }
-        } else {
-            response.setStatusCode(404).end();
+    /**
+     * @param path          JSON file of the schema, the default schema is used if it is empty
+     * @param defaultSchema schema built into the adapter
+     */
+    private Future<JsonObject> formSchema(String path, JsonObject defaultSchema) {
+        if (path.isEmpty()) {
+            return Future.succeededFuture(defaultSchema);
         }
+        return Future.<Buffer>future(read -> vertx.fileSystem().readFile(path, read))
+                .map(buffer -> {
+                    JsonObject schema = new JsonObject(buffer);
+                    LOGGER.info("Form schema loaded from " + path + ".");
+                    return schema;
+                })
+                .recover(cause -> Future.failedFuture("Form schema " + path + " could not be loaded: " + cause.getMessage()));
     }
 
-    private Future<Void> startVerticle(Class<? extends AbstractVerticle> clazz) {
+    private Future<Void> startVerticle(Class<? extends AbstractVerticle> clazz, boolean worker) {
         DeploymentOptions deploymentOptions = new DeploymentOptions()
-                .setWorker(true);
+                .setWorker(worker);
 
         return Future.future(startVerticle -> vertx.deployVerticle(clazz.getName(), deploymentOptions, handler -> {
             if (handler.succeeded()) {
@@ -173,8 +165,10 @@ public class MainVerticle extends AbstractVerticle {
     }
 
     public static void main(String[] args) {
-        String[] params = Arrays.copyOf(args, args.length + 1);
+        String[] params = new String[args.length + 2];
+        params[0] = "run";
+        System.arraycopy(args, 0, params, 1, args.length);
         params[params.length - 1] = MainVerticle.class.getName();
-        Launcher.executeCommand("run", params);
+        new AdapterLauncher().dispatch(params);
     }
 }
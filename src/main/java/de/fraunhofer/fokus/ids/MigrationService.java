@@ -0,0 +1,229 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.services.database.DatabaseService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Versioned schema migrations. The applied version is tracked in the schema_version table,
+ * every pending migration runs together with its version bump in a single transaction.
+ * On PostgreSQL, replicas starting at the same time are serialized by an advisory lock held by that transaction.
+ */
+public class MigrationService {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(MigrationService.class.getName());
+
+    /**
+     * Key of the PostgreSQL advisory lock taken by every migration transaction.
+     */
+    private static final long MIGRATION_LOCK = 0x7a656e6f646fL;
+
+    /**
+     * Tables of the record sync, the same for both backends. The files column holds the distributions of the
+     * record as JSON, keyed by file name: {"data.csv": {"distributionid": "...", "url": "..."}}.
+     */
+    private static final List<String> RECORD_SYNC_TABLES = Arrays.asList(
+            "CREATE TABLE syncrecord (" +
+                    "datasetid TEXT NOT NULL PRIMARY KEY, " +
+                    "recordid TEXT NOT NULL, " +
+                    "datasource TEXT NOT NULL, " +
+                    "files TEXT NOT NULL, " +
+                    "synced_at TEXT NOT NULL)",
+            "CREATE TABLE synccursor (" +
+                    "name TEXT NOT NULL PRIMARY KEY, " +
+                    "watermark TEXT NOT NULL)"
+    );
+
+    /**
+     * Queue of the prefetch, the same for both backends. Sizes and times are epoch milliseconds.
+     */
+    private static final List<String> PREFETCH_TABLES = Arrays.asList(
+            "CREATE TABLE prefetchqueue (" +
+                    "url TEXT NOT NULL PRIMARY KEY, " +
+                    "datasetid TEXT NOT NULL, " +
+                    "size BIGINT NOT NULL, " +
+                    "attempts INTEGER NOT NULL, " +
+                    "enqueued_at BIGINT NOT NULL, " +
+                    "not_before BIGINT NOT NULL)",
+            "CREATE INDEX prefetchqueue_next ON prefetchqueue (size, enqueued_at)",
+            "CREATE INDEX prefetchqueue_datasetid ON prefetchqueue (datasetid)"
+    );
+
+    /**
+     * Rebuilds the schema_version table of versions before 5 with a primary key, so that a version can only be recorded once.
+     */
+    private static final List<String> SCHEMA_VERSION_KEY = Arrays.asList(
+            "CREATE TABLE schema_version_v5 (version INTEGER NOT NULL PRIMARY KEY)",
+            "INSERT INTO schema_version_v5 (version) SELECT DISTINCT version FROM schema_version",
+            "DROP TABLE schema_version",
+            "ALTER TABLE schema_version_v5 RENAME TO schema_version"
+    );
+
+    /**
+     * Migration n (1-based) upgrades the schema from version n-1 to version n. Never change an existing entry, append a new one.
+     */
+    private static final List<List<String>> MIGRATIONS = Arrays.asList(
+            // 1: initial untyped schema of adapter version 1.1.0
+            Arrays.asList(
+                    "CREATE TABLE IF NOT EXISTS accessinformation (created_at, updated_at, datasetid, distributionid, url)"
+            ),
+            // 2: typed columns and composite primary key. The key's leading datasetid column also serves the lookups by datasetid.
+            Arrays.asList(
+                    "CREATE TABLE accessinformation_v2 (" +
+                            "created_at TEXT NOT NULL, " +
+                            "updated_at TEXT NOT NULL, " +
+                            "datasetid TEXT NOT NULL, " +
+                            "distributionid TEXT NOT NULL, " +
+                            "url TEXT NOT NULL, " +
+                            "PRIMARY KEY (datasetid, distributionid))",
+                    "INSERT INTO accessinformation_v2 (created_at, updated_at, datasetid, distributionid, url) " +
+                            "SELECT COALESCE(created_at, CURRENT_TIMESTAMP), COALESCE(updated_at, CURRENT_TIMESTAMP), datasetid, distributionid, url " +
+                            "FROM accessinformation " +
+                            "WHERE datasetid IS NOT NULL AND distributionid IS NOT NULL AND url IS NOT NULL " +
+                            "ON CONFLICT DO NOTHING",
+                    "DROP TABLE accessinformation",
+                    "ALTER TABLE accessinformation_v2 RENAME TO accessinformation"
+            ),
+            // 3: records tracked by the record sync and its cursor
+            RECORD_SYNC_TABLES,
+            // 4: queue of the prefetch
+            PREFETCH_TABLES,
+            // 5: primary key of the schema version
+            SCHEMA_VERSION_KEY,
+            // 6: access tokens of the data sources are no longer stored with the tracked records
+            Arrays.asList(
+                    "UPDATE syncrecord SET datasource = json_remove(datasource, '$.data.accessToken')"
+            )
+    );
+
+    /**
+     * Migrations of the PostgreSQL backend, which was introduced with schema version 2 and therefore starts with
+     * that schema. Every migration appended to {@link #MIGRATIONS} needs its PostgreSQL counterpart here.
+     */
+    private static final List<List<String>> POSTGRES_MIGRATIONS = Arrays.asList(
+            // 1: schema of version 2
+            Arrays.asList(
+                    "CREATE TABLE IF NOT EXISTS accessinformation (" +
+                            "created_at TEXT NOT NULL, " +
+                            "updated_at TEXT NOT NULL, " +
+                            "datasetid TEXT NOT NULL, " +
+                            "distributionid TEXT NOT NULL, " +
+                            "url TEXT NOT NULL, " +
+                            "PRIMARY KEY (datasetid, distributionid))"
+            ),
+            // 2: already contained in 1
+            Collections.emptyList(),
+            // 3: records tracked by the record sync and its cursor
+            RECORD_SYNC_TABLES,
+            // 4: queue of the prefetch
+            PREFETCH_TABLES,
+            // 5: primary key of the schema version
+            SCHEMA_VERSION_KEY,
+            // 6: access tokens of the data sources are no longer stored with the tracked records
+            Arrays.asList(
+                    "UPDATE syncrecord SET datasource = (datasource::jsonb #- '{data,accessToken}')::text"
+            )
+    );
+
+    private final DatabaseService databaseService;
+    private final List<List<String>> migrations;
+    private final boolean postgres;
+
+    public MigrationService(DatabaseService databaseService) {
+        this(databaseService, ApplicationConfig.DEFAULT_DB_BACKEND);
+    }
+
+    /**
+     * @param backend database backend the service runs on, see {@link ApplicationConfig#ENV_DB_BACKEND}
+     */
+    public MigrationService(DatabaseService databaseService, String backend) {
+        this.databaseService = databaseService;
+        this.postgres = ApplicationConfig.DB_BACKEND_POSTGRES.equals(backend);
+        this.migrations = postgres
+                ? POSTGRES_MIGRATIONS
+                : MIGRATIONS;
+    }
+
+    public void migrate(Handler<AsyncResult<Void>> resultHandler) {
+        List<String> create = Collections.singletonList("CREATE TABLE IF NOT EXISTS schema_version (version INTEGER NOT NULL PRIMARY KEY)");
+        databaseService.batch(locked(create), reply -> {
+            if (reply.failed()) {
+                LOGGER.error("Schema version table could not be created.", reply.cause());
+                resultHandler.handle(Future.failedFuture(reply.cause()));
+                return;
+            }
+            version(version -> {
+                if (version.succeeded()) {
+                    migrate(version.result(), resultHandler);
+                } else {
+                    LOGGER.error("Schema version could not be retrieved.", version.cause());
+                    resultHandler.handle(Future.failedFuture(version.cause()));
+                }
+            });
+        });
+    }
+
+    private void migrate(int version, Handler<AsyncResult<Void>> resultHandler) {
+        if (version >= migrations.size()) {
+            LOGGER.info("Database schema is up to date (version " + version + ").");
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        int nextVersion = version + 1;
+        List<String> statements = new ArrayList<>(migrations.get(version));
+        statements.add("INSERT INTO schema_version (version) VALUES (" + nextVersion + ")");
+
+        databaseService.batch(locked(statements), reply -> {
+            if (reply.succeeded()) {
+                LOGGER.info("Migrated database schema to version " + nextVersion + ".");
+                migrate(nextVersion, resultHandler);
+                return;
+            }
+            // another replica may have applied the migration while this one waited for the lock
+            version(current -> {
+                if (current.succeeded() && current.result() >= nextVersion) {
+                    LOGGER.info("Database schema was migrated to version " + current.result() + " concurrently.");
+                    migrate(current.result(), resultHandler);
+                } else {
+                    LOGGER.error("Migration to schema version " + nextVersion + " failed.", reply.cause());
+                    resultHandler.handle(Future.failedFuture(reply.cause()));
+                }
+            });
+        });
+    }
+
+    private void version(Handler<AsyncResult<Integer>> resultHandler) {
+        databaseService.query("SELECT MAX(version) AS version FROM schema_version", new JsonArray(), query -> {
+            if (query.succeeded()) {
+                Integer version = query.result().isEmpty()
+                        ? null
+                        : query.result().get(0).getInteger("version");
+                resultHandler.handle(Future.succeededFuture(version != null ? version : 0));
+            } else {
+                resultHandler.handle(Future.failedFuture(query.cause()));
+            }
+        });
+    }
+
+    /**
+     * Prepends the advisory lock on PostgreSQL, which blocks until the migration transactions of other replicas are done.
+     */
+    private List<String> locked(List<String> statements) {
+        if (!postgres) {
+            return statements;
+        }
+        List<String> locked = new ArrayList<>(statements.size() + 1);
+        locked.add("SELECT pg_advisory_xact_lock(" + MIGRATION_LOCK + ")");
+        locked.addAll(statements);
+        return locked;
+    }
+}
@@ -0,0 +1,291 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.services.database.DatabaseService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Optional background prefetch of the distributions of created data assets into the {@link FileCache}, so that
+ * the first download of a file is served from disk. The distributions are enqueued into the prefetchqueue table,
+ * which survives restarts, and downloaded by a few workers:
+ * <ul>
+ * <li>smaller files are prefetched first, files of the same size in the order they were enqueued and files of
+ * unknown size last,</li>
+ * <li>at most the configured number of downloads run at a time, sharing one bandwidth limit, so that prefetching
+ * does not compete with the downloads of consumers,</li>
+ * <li>files already cached or larger than the maximum file size are skipped,</li>
+ * <li>failed downloads are retried with an exponentially growing delay up to the maximum number of attempts.</li>
+ * </ul>
+ * Entries are removed once the file is cached or given up, and when their data asset is deleted. A consumer
+ * requesting a file while it is prefetched gets it from upstream as before.
+ */
+public class PrefetchService {
+
+    private static final String ENQUEUE = "INSERT INTO prefetchqueue (url, datasetid, size, attempts, enqueued_at, not_before) VALUES (?, ?, ?, 0, ?, 0) " +
+            "ON CONFLICT (url) DO NOTHING";
+    private static final String NEXT = "SELECT url, size, attempts FROM prefetchqueue WHERE not_before <= ? " +
+            "ORDER BY size < 0, size, enqueued_at LIMIT ?";
+    private static final String RETRY = "UPDATE prefetchqueue SET attempts = attempts + 1, not_before = ? WHERE url = ?";
+    private static final String REMOVE = "DELETE FROM prefetchqueue WHERE url = ?";
+    private static final String REMOVE_DATASET = "DELETE FROM prefetchqueue WHERE datasetid = ?";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(PrefetchService.class.getName());
+
+    private final Vertx vertx;
+    private final JsonObject config;
+    private final DatabaseService databaseService;
+    private final FileCache fileCache;
+    private final boolean enabled;
+    private final int concurrency;
+    private final long maxFileSize;
+    private final int maxAttempts;
+    private final long retryDelay;
+    private final long idleTimeout;
+    private final TokenBucket bandwidth;
+    // only used on the context that started the service
+    private final Set<String> running = new HashSet<>();
+    private Context context;
+    private HttpClient httpClient;
+    private boolean polling;
+    private boolean pollAgain;
+
+    /**
+     * @param fileCache cache the distributions are prefetched into, prefetching is disabled if it is null
+     */
+    public PrefetchService(Vertx vertx, JsonObject config, FileCache fileCache) {
+        this.vertx = vertx;
+        this.config = config;
+        this.databaseService = LocalServices.lookup(vertx, DatabaseService.class, ApplicationConfig.DATABASE_SERVICE, DatabaseService::createProxy);
+        this.fileCache = fileCache;
+        this.enabled = fileCache != null && config.getBoolean(ApplicationConfig.ENV_PREFETCH_ENABLED, ApplicationConfig.DEFAULT_PREFETCH_ENABLED);
+        this.concurrency = config.getInteger(ApplicationConfig.ENV_PREFETCH_CONCURRENCY, ApplicationConfig.DEFAULT_PREFETCH_CONCURRENCY);
+        this.maxFileSize = config.getLong(ApplicationConfig.ENV_PREFETCH_MAX_FILE_SIZE, ApplicationConfig.DEFAULT_PREFETCH_MAX_FILE_SIZE);
+        this.maxAttempts = config.getInteger(ApplicationConfig.ENV_PREFETCH_MAX_ATTEMPTS, ApplicationConfig.DEFAULT_PREFETCH_MAX_ATTEMPTS);
+        this.retryDelay = config.getLong(ApplicationConfig.ENV_PREFETCH_RETRY_DELAY, ApplicationConfig.DEFAULT_PREFETCH_RETRY_DELAY);
+        this.idleTimeout = config.getLong(ApplicationConfig.ENV_FILE_TRANSFER_IDLE_TIMEOUT, ApplicationConfig.DEFAULT_FILE_TRANSFER_IDLE_TIMEOUT);
+        long bytesPerSecond = config.getLong(ApplicationConfig.ENV_PREFETCH_BANDWIDTH, ApplicationConfig.DEFAULT_PREFETCH_BANDWIDTH);
+        this.bandwidth = bytesPerSecond > 0 ? new TokenBucket(bytesPerSecond) : null;
+    }
+
+    /**
+     * Starts the workers on the current context, unless prefetching is disabled. Entries left in the queue by a
+     * previous run are picked up right away, entries waiting for a retry once their delay has passed.
+     */
+    public void start() {
+        if (!enabled) {
+            LOGGER.info("Prefetch disabled.");
+            return;
+        }
+        context = vertx.getOrCreateContext();
+        httpClient = vertx.createHttpClient(UpstreamClients.downloadOptions(config));
+        vertx.setPeriodic(Math.max(1000, retryDelay), timer -> poll());
+        poll();
+    }
+
+    /**
+     * Enqueues the distributions of a created data asset. May be called from any context.
+     *
+     * @param files sizes in bytes keyed by upstream URL, -1 if the size is unknown
+     */
+    public void enqueue(String datasetId, Map<String, Long> files, Handler<AsyncResult<Void>> resultHandler) {
+        if (!enabled || files.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<JsonArray> params = files.entrySet().stream()
+                .map(file -> new JsonArray().add(file.getKey()).add(datasetId).add(file.getValue()).add(now))
+                .collect(Collectors.toList());
+        databaseService.batchWithParams(ENQUEUE, params, reply -> {
+            if (reply.succeeded()) {
+                context.runOnContext(v -> poll());
+            }
+            resultHandler.handle(reply.mapEmpty());
+        });
+    }
+
+    /**
+     * Removes the queued distributions of a deleted data asset, running downloads are finished. May be called from
+     * any context.
+     */
+    public void remove(String datasetId, Handler<AsyncResult<Void>> resultHandler) {
+        if (!enabled) {
+            resultHandler.handle(Future.succeededFuture());
+            return;
+        }
+        databaseService.update(REMOVE_DATASET, new JsonArray().add(datasetId), reply -> resultHandler.handle(reply.mapEmpty()));
+    }
+
+    /**
+     * Starts downloads of the next entries while fewer than the maximum number are running.
+     */
+    private void poll() {
+        if (polling) {
+            pollAgain = true;
+            return;
+        }
+        if (running.size() >= concurrency) {
+            return;
+        }
+        polling = true;
+        // running entries are still in the queue and skipped
+        JsonArray params = new JsonArray().add(System.currentTimeMillis()).add((long) (concurrency + running.size()));
+        databaseService.query(NEXT, params, reply -> {
+            polling = false;
+            if (reply.failed()) {
+                LOGGER.error("Prefetch queue could not be read.", reply.cause());
+                return;
+            }
+            for (JsonObject entry : reply.result()) {
+                if (running.size() >= concurrency) {
+                    break;
+                }
+                if (running.add(entry.getString("url"))) {
+                    prefetch(entry.getString("url"), entry.getLong("size"), entry.getInteger("attempts"));
+                }
+            }
+            if (pollAgain) {
+                pollAgain = false;
+                poll();
+            }
+        });
+    }
+
+    private void prefetch(String url, long size, int attempts) {
+        if (fileCache.lookup(url) != null) {
+            finished(url, "cached");
+            return;
+        }
+        if (size > maxFileSize) {
+            LOGGER.info("File " + url + " of " + size + " bytes is not prefetched, it is larger than " + maxFileSize + " bytes.");
+            finished(url, "skipped");
+            return;
+        }
+        long start = System.nanoTime();
+        Future.<FileCache.CacheWriter>future(open -> fileCache.open(url, open))
+                .compose(cacheWriter -> download(url, cacheWriter))
+                .onComplete(ar -> {
+                    if (ar.succeeded()) {
+                        LOGGER.info("Prefetched " + ar.result() + " bytes from " + url + " in " + (System.nanoTime() - start) / 1000000 + " ms.");
+                        AdapterMetrics.registry().counter(AdapterMetrics.PREFETCHED_BYTES).increment(ar.result());
+                        finished(url, "prefetched");
+                    } else if (attempts + 1 >= maxAttempts) {
+                        LOGGER.error("Prefetch of " + url + " given up after " + (attempts + 1) + " attempts.", ar.cause());
+                        finished(url, "failed");
+                    } else {
+                        long delay = retryDelay << Math.min(attempts, 16);
+                        LOGGER.info("Prefetch of " + url + " failed (" + ar.cause().getMessage() + "), retrying in " + delay + " ms.");
+                        databaseService.update(RETRY, new JsonArray().add(System.currentTimeMillis() + delay).add(url), retry -> {
+                            if (retry.failed()) {
+                                LOGGER.error("Prefetch of " + url + " could not be rescheduled.", retry.cause());
+                            }
+                            running.remove(url);
+                            poll();
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Downloads the file into the cache file, paused while the cache file is behind or the bandwidth is used up.
+     *
+     * @return the number of bytes written to the cache
+     */
+    private Future<Long> download(String url, FileCache.CacheWriter cacheWriter) {
+        Future<Long> downloaded = Future.future(download -> {
+            AsyncFile file = cacheWriter.getFile();
+            long[] bytes = {0};
+            boolean[] waiting = {false, false};
+            HttpClientRequest request = httpClient.requestAbs(HttpMethod.GET, url)
+                    .setFollowRedirects(true)
+                    .setTimeout(idleTimeout);
+            request.handler(response -> {
+                response.exceptionHandler(download::tryFail);
+                if (response.statusCode() != 200) {
+                    download.tryFail("Upstream responded with status code " + response.statusCode());
+                    request.reset();
+                    return;
+                }
+                response.handler(chunk -> {
+                    file.write(chunk);
+                    bytes[0] += chunk.length();
+                    if (file.writeQueueFull()) {
+                        waiting[0] = true;
+                        response.pause();
+                        file.drainHandler(v -> {
+                            waiting[0] = false;
+                            resume(response, waiting);
+                        });
+                    }
+                    long delay = bandwidth != null ? bandwidth.take(chunk.length()) : 0;
+                    if (delay > 0) {
+                        waiting[1] = true;
+                        response.pause();
+                        vertx.setTimer(delay, timer -> {
+                            waiting[1] = false;
+                            resume(response, waiting);
+                        });
+                    }
+                });
+                response.endHandler(v -> download.tryComplete(bytes[0]));
+            });
+            request.exceptionHandler(download::tryFail);
+            file.exceptionHandler(e -> {
+                request.reset();
+                download.tryFail(e);
+            });
+            request.end();
+        });
+        return downloaded.compose(
+                bytes -> Future.<Void>future(close -> cacheWriter.getFile().close(close))
+                        .map(v -> {
+                            fileCache.commit(cacheWriter, bytes);
+                            return bytes;
+                        })
+                        .onFailure(cause -> fileCache.discard(cacheWriter)),
+                cause -> {
+                    cacheWriter.getFile().close(close -> fileCache.discard(cacheWriter));
+                    return Future.<Long>failedFuture(cause);
+                });
+    }
+
+    private void resume(HttpClientResponse response, boolean[] waiting) {
+        if (!waiting[0] && !waiting[1]) {
+            response.resume();
+        }
+    }
+
+    /**
+     * Removes the entry from the queue and starts the next download.
+     *
+     * @param outcome prefetched, cached (already), skipped (too large) or failed
+     */
+    private void finished(String url, String outcome) {
+        AdapterMetrics.registry().counter(AdapterMetrics.PREFETCH_FILES, "outcome", outcome).increment();
+        databaseService.update(REMOVE, new JsonArray().add(url), remove -> {
+            if (remove.failed()) {
+                LOGGER.error("Prefetch queue entry of " + url + " could not be removed.", remove.cause());
+            }
+            running.remove(url);
+            poll();
+        });
+    }
+}
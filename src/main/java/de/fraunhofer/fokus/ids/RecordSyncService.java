@@ -0,0 +1,329 @@
+package de.fraunhofer.fokus.ids;
+
+import de.fraunhofer.fokus.ids.services.database.DatabaseService;
+import de.fraunhofer.fokus.ids.services.zenodo.ZenodoService;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.apache.commons.lang3.StringUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the access information of the registered data assets in line with their Zenodo records. Every data asset
+ * created from a record is tracked together with its data source, without its access token, and its distributions
+ * by file name. The sync uses the access token of its own configuration instead. A periodic
+ * sync asks the Zenodo search only for the tracked records modified since the watermark of the last complete run,
+ * reads the modified records again, following links.latest to a new version, and applies the differences:
+ * <ul>
+ * <li>files with a new URL keep their distribution id,</li>
+ * <li>new files get a distribution id derived from dataset and file name,</li>
+ * <li>removed files are deleted.</li>
+ * </ul>
+ * Zenodo calls run with bounded concurrency. The watermark is persisted and only advanced by a run without failures.
+ * Applying the differences is idempotent, so a failed or interrupted run is simply repeated by the next one.
+ * The differences are applied in one transaction that only writes while the record is still tracked, so a data
+ * asset deleted during a sync does not get its access information back.
+ */
+public class RecordSyncService {
+
+    private static final String CURSOR = "records";
+    // modifications shortly before the watermark are checked again, in case the clocks of Zenodo and the adapter differ
+    private static final long WATERMARK_OVERLAP = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String TRACK = "INSERT INTO syncrecord (datasetid, recordid, datasource, files, synced_at) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (datasetid) DO UPDATE SET recordid = excluded.recordid, datasource = excluded.datasource, files = excluded.files, synced_at = excluded.synced_at";
+    private static final String UNTRACK = "DELETE FROM syncrecord WHERE datasetid = ?";
+    private static final String FIND_RECORDS = "SELECT datasetid, recordid, datasource, files, synced_at FROM syncrecord";
+    private static final String FIND_CURSOR = "SELECT watermark FROM synccursor WHERE name = ?";
+    private static final String SAVE_CURSOR = "INSERT INTO synccursor (name, watermark) VALUES (?, ?) " +
+            "ON CONFLICT (name) DO UPDATE SET watermark = excluded.watermark";
+    // updated first, which locks the tracked record against a concurrent untrack until the sync is committed
+    private static final String SYNC = "UPDATE syncrecord SET recordid = ?, files = ?, synced_at = ? WHERE datasetid = ?";
+    private static final String SAVE_URL = "INSERT INTO accessinformation (created_at, updated_at, datasetid, distributionid, url) " +
+            "SELECT ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM syncrecord WHERE datasetid = ?) " +
+            "ON CONFLICT (datasetid, distributionid) DO UPDATE SET url = excluded.url, updated_at = excluded.updated_at";
+    private static final String DELETE_URL = "DELETE FROM accessinformation WHERE datasetid = ? AND distributionid = ?";
+
+    private final Logger LOGGER = LoggerFactory.getLogger(RecordSyncService.class.getName());
+
+    private final Vertx vertx;
+    private final ZenodoService zenodoService;
+    private final DatabaseService databaseService;
+    private final AccessInformationCache accessInformationCache;
+    private final long interval;
+    private final int concurrency;
+    private final int batchSize;
+    private final String accessToken;
+    private boolean running;
+
+    public RecordSyncService(Vertx vertx, JsonObject config, AccessInformationCache accessInformationCache) {
+        this.vertx = vertx;
+        this.zenodoService = LocalServices.lookup(vertx, ZenodoService.class, ApplicationConfig.ZENODO_SERVICE, ZenodoService::createProxy);
+        this.databaseService = LocalServices.lookup(vertx, DatabaseService.class, ApplicationConfig.DATABASE_SERVICE, DatabaseService::createProxy);
+        this.accessInformationCache = accessInformationCache;
+        this.interval = config.getLong(ApplicationConfig.ENV_RECORD_SYNC_INTERVAL, ApplicationConfig.DEFAULT_RECORD_SYNC_INTERVAL);
+        this.concurrency = config.getInteger(ApplicationConfig.ENV_RECORD_SYNC_CONCURRENCY, ApplicationConfig.DEFAULT_RECORD_SYNC_CONCURRENCY);
+        this.batchSize = Math.max(1, config.getInteger(ApplicationConfig.ENV_RECORD_SYNC_BATCH_SIZE, ApplicationConfig.DEFAULT_RECORD_SYNC_BATCH_SIZE));
+        String accessToken = config.getString(ApplicationConfig.ENV_RECORD_SYNC_ACCESS_TOKEN, ApplicationConfig.DEFAULT_RECORD_SYNC_ACCESS_TOKEN);
+        this.accessToken = accessToken.isEmpty() ? null : accessToken;
+    }
+
+    /**
+     * Schedules the periodic sync on the current context, unless it is disabled.
+     */
+    public void start() {
+        if (interval <= 0) {
+            LOGGER.info("Record sync disabled.");
+            return;
+        }
+        vertx.setPeriodic(interval, timer -> sync(ar -> {
+        }));
+    }
+
+    /**
+     * Tracks the record a data asset was created from. May be called from any context.
+     *
+     * @param dataSource       data source of the record, its access token is not stored
+     * @param record           record as returned by {@link ZenodoService#query}
+     * @param distributionUrls upstream URLs of the created distributions keyed by distribution id
+     */
+    public void track(String datasetId, String recordId, JsonObject dataSource, JsonObject record, Map<String, String> distributionUrls, Handler<AsyncResult<Void>> resultHandler) {
+        Map<String, String> distributionIds = new HashMap<>();
+        distributionUrls.forEach((distributionId, url) -> distributionIds.put(url, distributionId));
+
+        JsonObject files = new JsonObject();
+        files(record).forEach((key, url) -> {
+            if (distributionIds.containsKey(url)) {
+                files.put(key, new JsonObject().put("distributionid", distributionIds.get(url)).put("url", url));
+            }
+        });
+
+        JsonObject storedDataSource = dataSource.copy();
+        JsonObject data = storedDataSource.getJsonObject("data");
+        if (data != null) {
+            data.remove("accessToken");
+        }
+
+        JsonArray params = new JsonArray()
+                .add(datasetId)
+                .add(recordId)
+                .add(storedDataSource.encode())
+                .add(files.encode())
+                .add(Instant.now().toString());
+        databaseService.update(TRACK, params, reply -> resultHandler.handle(reply.mapEmpty()));
+    }
+
+    public void untrack(String datasetId, Handler<AsyncResult<Void>> resultHandler) {
+        databaseService.update(UNTRACK, new JsonArray().add(datasetId), reply -> resultHandler.handle(reply.mapEmpty()));
+    }
+
+    /**
+     * Runs one sync, must be called on the context that started the service. A call while a sync is running fails.
+     *
+     * @param resultHandler receives the number of records whose access information changed
+     */
+    public void sync(Handler<AsyncResult<Integer>> resultHandler) {
+        if (running) {
+            resultHandler.handle(Future.failedFuture("Record sync is already running."));
+            return;
+        }
+        running = true;
+        String started = Instant.now().toString();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(concurrency);
+
+        Future.<List<JsonObject>>future(cursor -> databaseService.query(FIND_CURSOR, new JsonArray().add(CURSOR), cursor))
+                .compose(cursor -> Future.<List<JsonObject>>future(records -> databaseService.query(FIND_RECORDS, new JsonArray(), records))
+                        .compose(records -> syncRecords(records, cursor.isEmpty() ? null : instant(cursor.get(0).getValue("watermark")), limiter)))
+                .compose(changed -> Future.<List<JsonObject>>future(save -> databaseService.update(SAVE_CURSOR, new JsonArray().add(CURSOR).add(started), save))
+                        .map(changed))
+                .onComplete(ar -> {
+                    running = false;
+                    if (ar.succeeded()) {
+                        LOGGER.info("Record sync complete, " + ar.result() + " records changed.");
+                    } else {
+                        LOGGER.error("Record sync failed, the next sync starts from the same watermark.", ar.cause());
+                    }
+                    resultHandler.handle(ar);
+                });
+    }
+
+    private Future<Integer> syncRecords(List<JsonObject> records, Instant watermark, ConcurrencyLimiter limiter) {
+        if (records.isEmpty()) {
+            return Future.succeededFuture(0);
+        }
+        // without a cursor the records are checked for modifications since they were tracked
+        Instant since = watermark != null
+                ? watermark
+                : records.stream().map(record -> instant(record.getValue("synced_at"))).min(Comparator.naturalOrder()).get();
+        String from = since.minusMillis(WATERMARK_OVERLAP).truncatedTo(ChronoUnit.SECONDS).toString();
+
+        List<Future> syncs = new ArrayList<>();
+        records.stream()
+                .filter(record -> record.getString("recordid").matches("\\d+"))
+                .collect(Collectors.groupingBy(record -> record.getString("datasource")))
+                .forEach((dataSource, sourceRecords) -> {
+                    for (int i = 0; i < sourceRecords.size(); i += batchSize) {
+                        List<JsonObject> batch = sourceRecords.subList(i, Math.min(i + batchSize, sourceRecords.size()));
+                        syncs.add(limiter.execute(() -> modified(new JsonObject(dataSource), batch, from, 1, new ArrayList<>()))
+                                .compose(modified -> CompositeFuture.join(modified.stream()
+                                        .map(record -> limiter.execute(() -> syncRecord(record)))
+                                        .collect(Collectors.toList())))
+                                .map(results -> results.<Boolean>list().stream().filter(Boolean::booleanValue).count()));
+                    }
+                });
+
+        return CompositeFuture.join(syncs)
+                .map(results -> results.<Long>list().stream().mapToInt(Long::intValue).sum());
+    }
+
+    /**
+     * Pages through the records of the batch modified since the given time.
+     */
+    private Future<List<JsonObject>> modified(JsonObject dataSource, List<JsonObject> batch, String from, int page, List<JsonObject> modified) {
+        String query = batch.stream()
+                .map(record -> record.getString("recordid"))
+                .collect(Collectors.joining(" OR ", "recid:(", ")"))
+                + " AND updated:[\"" + from + "\" TO *]";
+
+        return Future.<JsonObject>future(search -> zenodoService.search(dataSource, new JsonObject().put("query", query), page, accessToken, search))
+                .compose(result -> {
+                    Set<String> recordIds = result.getJsonArray("recordIds").stream()
+                            .map(Object::toString)
+                            .collect(Collectors.toSet());
+                    batch.stream()
+                            .filter(record -> recordIds.contains(record.getString("recordid")))
+                            .forEach(modified::add);
+                    return result.getBoolean("hasNext")
+                            ? modified(dataSource, batch, from, page + 1, modified)
+                            : Future.succeededFuture(modified);
+                });
+    }
+
+    /**
+     * @return whether the access information of the record changed
+     */
+    private Future<Boolean> syncRecord(JsonObject trackedRecord) {
+        JsonObject dataSource = new JsonObject(trackedRecord.getString("datasource"));
+        String recordId = trackedRecord.getString("recordid");
+
+        return query(dataSource, recordId)
+                .compose(record -> {
+                    String latest = StringUtils.substringAfterLast(record.getJsonObject("links", new JsonObject()).getString("latest", ""), "/");
+                    return latest.isEmpty() || latest.equals(String.valueOf(record.getValue("id")))
+                            ? Future.succeededFuture(record)
+                            : query(dataSource, latest);
+                })
+                .compose(record -> apply(trackedRecord, record));
+    }
+
+    private Future<JsonObject> query(JsonObject dataSource, String recordId) {
+        return Future.future(query -> zenodoService.query(dataSource, recordId, accessToken, query));
+    }
+
+    private Future<Boolean> apply(JsonObject trackedRecord, JsonObject record) {
+        String datasetId = trackedRecord.getString("datasetid");
+        JsonObject trackedFiles = new JsonObject(trackedRecord.getString("files"));
+        Map<String, String> currentFiles = files(record);
+        String now = Instant.now().toString();
+
+        JsonObject files = new JsonObject();
+        List<JsonArray> saved = new ArrayList<>();
+        for (Map.Entry<String, String> file : currentFiles.entrySet()) {
+            JsonObject tracked = trackedFiles.getJsonObject(file.getKey());
+            String distributionId;
+            if (tracked != null) {
+                distributionId = tracked.getString("distributionid");
+            } else {
+                // derived from dataset and file name, so that repeating a sync does not add the file twice
+                distributionId = UUID.nameUUIDFromBytes((datasetId + "/" + file.getKey()).getBytes(StandardCharsets.UTF_8)).toString();
+            }
+            if (tracked == null || !file.getValue().equals(tracked.getString("url"))) {
+                saved.add(new JsonArray().add(now).add(now).add(datasetId).add(distributionId).add(file.getValue()).add(datasetId));
+            }
+            files.put(file.getKey(), new JsonObject().put("distributionid", distributionId).put("url", file.getValue()));
+        }
+        List<JsonArray> deleted = trackedFiles.fieldNames().stream()
+                .filter(key -> !currentFiles.containsKey(key))
+                .map(key -> new JsonArray().add(datasetId).add(trackedFiles.getJsonObject(key).getString("distributionid")))
+                .collect(Collectors.toList());
+        String recordId = String.valueOf(record.getValue("id", trackedRecord.getString("recordid")));
+
+        if (saved.isEmpty() && deleted.isEmpty() && recordId.equals(trackedRecord.getString("recordid"))) {
+            return Future.succeededFuture(false);
+        }
+
+        int added = (int) currentFiles.keySet().stream().filter(key -> !trackedFiles.containsKey(key)).count();
+        int changedUrls = saved.size() - added;
+        List<String> queries = new ArrayList<>();
+        List<JsonArray> params = new ArrayList<>();
+        queries.add(SYNC);
+        params.add(new JsonArray().add(recordId).add(files.encode()).add(now).add(datasetId));
+        saved.forEach(save -> {
+            queries.add(SAVE_URL);
+            params.add(save);
+        });
+        deleted.forEach(delete -> {
+            queries.add(DELETE_URL);
+            params.add(delete);
+        });
+        return Future.<List<Integer>>future(transaction -> databaseService.transaction(queries, params, transaction))
+                .map(counts -> {
+                    if (counts.get(0) == 0) {
+                        LOGGER.info("Dataset " + datasetId + " was deleted during the sync, record " + recordId + " skipped.");
+                        return false;
+                    }
+                    accessInformationCache.invalidate(datasetId);
+                    countChanges("added", added);
+                    countChanges("updated", changedUrls);
+                    countChanges("removed", deleted.size());
+                    LOGGER.info("Synced dataset " + datasetId + " with record " + recordId + ": " + added + " files added, "
+                            + changedUrls + " updated, " + deleted.size() + " removed.");
+                    return true;
+                });
+    }
+
+    private void countChanges(String change, int count) {
+        AdapterMetrics.registry().counter(AdapterMetrics.RECORD_SYNC_CHANGES, "change", change).increment(count);
+    }
+
+    /**
+     * @return download URLs of the files of the record by file name
+     */
+    private static Map<String, String> files(JsonObject record) {
+        Map<String, String> files = new HashMap<>();
+        record.getJsonArray("files", new JsonArray()).stream()
+                .filter(file -> file instanceof JsonObject)
+                .map(file -> (JsonObject) file)
+                .filter(file -> file.getString("key") != null && file.getJsonObject("links", new JsonObject()).getString("self") != null)
+                .forEach(file -> files.put(file.getString("key"), file.getJsonObject("links").getString("self")));
+        return files;
+    }
+
+    /**
+     * Timestamps are written as ISO-8601 strings, which SQLite stores as milliseconds since the epoch.
+     */
+    private static Instant instant(Object value) {
+        String timestamp = String.valueOf(value);
+        return timestamp.matches("\\d+")
+                ? Instant.ofEpochMilli(Long.parseLong(timestamp))
+                : Instant.parse(timestamp);
+    }
+}
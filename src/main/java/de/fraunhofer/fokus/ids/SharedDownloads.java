@@ -0,0 +1,636 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxException;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single-flight coalescing of concurrent downloads of the same complete file, shared by all HTTP server instances.
+ * The first request for a URL starts the upstream request, requests for the same URL arriving while at most the
+ * buffer size has been received join it and read the same chunks from the start. Memory stays bounded:
+ * <ul>
+ * <li>received chunks are kept until all consumers have read them, but at most the buffer size behind the fastest
+ * consumer,</li>
+ * <li>a consumer lagging further behind is detached and continues with its own upstream request for the remaining
+ * bytes (Range with If-Range), or skips them if upstream does not support ranges. Once every consumer is detached,
+ * the shared download is cancelled,</li>
+ * <li>upstream is only paused while every consumer lags at least half the buffer size, i.e. it runs at the pace of
+ * the fastest consumer.</li>
+ * </ul>
+ * The file is written to the {@link FileCache} once by the download itself, independent of its consumers.
+ * Range requests are not coalesced.
+ * <p>
+ * A download runs on the context of the request that started it, consumers read on the context of their request.
+ * The state of a download is guarded by its monitor.
+ */
+public class SharedDownloads {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(SharedDownloads.class.getName());
+
+    private static final String RANGE = "Range";
+    private static final String IF_RANGE = "If-Range";
+
+    private final FileCache fileCache;
+    private final long bufferSize;
+    private final Map<String, Download> joinable = new HashMap<>();
+
+    /**
+     * @param fileCache cache the downloads are written to, may be null if the file cache is disabled
+     */
+    public SharedDownloads(JsonObject config, FileCache fileCache) {
+        this.fileCache = fileCache;
+        this.bufferSize = config.getLong(ApplicationConfig.ENV_DOWNLOAD_COALESCING_BUFFER_SIZE, ApplicationConfig.DEFAULT_DOWNLOAD_COALESCING_BUFFER_SIZE);
+    }
+
+    /**
+     * Joins the running download of the URL or starts a new one. Must be called on the context of the request.
+     *
+     * @param httpClient  upstream client of the calling HTTP server instance, used to start the download and for
+     *                    the own request if the consumer lags behind
+     * @param headHandler called with the subscription once the upstream response head is received, fails if the
+     *                    upstream request failed before, not called after the subscription is cancelled
+     * @return the subscription, a paused stream of the file
+     */
+    public Subscription open(String url, HttpClient httpClient, Handler<AsyncResult<Subscription>> headHandler) {
+        Subscription subscription = new Subscription(url, httpClient, headHandler);
+        Download download;
+        boolean started = false;
+        synchronized (this) {
+            download = joinable.get(url);
+            if (download == null || !download.subscribe(subscription)) {
+                download = new Download(url);
+                download.subscribe(subscription);
+                joinable.put(url, download);
+                started = true;
+            }
+        }
+        if (started) {
+            download.start(httpClient);
+        } else {
+            LOGGER.info("Joined running download of " + url);
+            AdapterMetrics.registry().counter(AdapterMetrics.FILE_DOWNLOADS_COALESCED).increment();
+        }
+        return subscription;
+    }
+
+    private synchronized void remove(String url, Download download) {
+        joinable.remove(url, download);
+    }
+
+    private final class Download {
+
+        private final String url;
+        private final List<Subscription> subscribers = new ArrayList<>();
+        private final List<Buffer> chunks = new ArrayList<>();
+        private Context context;
+        private HttpClientRequest request;
+        private HttpClientResponse response;
+        private FileCache.CacheWriter cacheWriter;
+        private boolean cacheFailed;
+        private boolean cacheFull;
+        // absolute index of the first kept chunk and number of chunks received
+        private long firstChunk;
+        private long chunkCount;
+        private long received;
+        private boolean joinable = true;
+        private boolean headReceived;
+        private int statusCode;
+        private MultiMap headers;
+        private boolean paused;
+        private boolean ended;
+        private Throwable failure;
+
+        private Download(String url) {
+            this.url = url;
+        }
+
+        /**
+         * @return false if the download cannot be joined any more
+         */
+        private synchronized boolean subscribe(Subscription subscription) {
+            if (!joinable) {
+                return false;
+            }
+            subscription.download = this;
+            subscribers.add(subscription);
+            if (headReceived) {
+                subscription.headReceived();
+            }
+            return true;
+        }
+
+        private void start(HttpClient httpClient) {
+            context = Vertx.currentContext();
+            request = httpClient.requestAbs(HttpMethod.GET, url)
+                    .setFollowRedirects(true);
+            request.handler(this::head);
+            request.exceptionHandler(this::failed);
+            request.end();
+        }
+
+        private void head(HttpClientResponse response) {
+            List<Subscription> waiting;
+            synchronized (this) {
+                this.response = response;
+                statusCode = response.statusCode();
+                headers = MultiMap.caseInsensitiveMultiMap().addAll(response.headers());
+                headReceived = true;
+                waiting = new ArrayList<>(subscribers);
+            }
+            if (statusCode != 200) {
+                // consumers only pass the status code on, the body is discarded
+                response.handler(chunk -> {
+                });
+                response.endHandler(v -> ended());
+                response.exceptionHandler(e -> ended());
+            } else {
+                response.pause();
+                response.exceptionHandler(this::failed);
+                if (fileCache == null) {
+                    receive();
+                } else {
+                    fileCache.open(url, cacheFile -> {
+                        boolean cancelled;
+                        synchronized (this) {
+                            cancelled = ended;
+                        }
+                        if (cancelled && cacheFile.succeeded()) {
+                            fileCache.discard(cacheFile.result());
+                        } else if (cacheFile.succeeded()) {
+                            cacheWriter = cacheFile.result();
+                            cacheWriter.getFile().exceptionHandler(e -> {
+                                LOGGER.error("Writing to cache file failed.", e);
+                                cacheFailed = true;
+                            });
+                            cacheWriter.getFile().drainHandler(v -> {
+                                synchronized (this) {
+                                    cacheFull = false;
+                                }
+                                resume();
+                            });
+                        }
+                        receive();
+                    });
+                }
+            }
+            waiting.forEach(Subscription::headReceived);
+        }
+
+        private void receive() {
+            response.handler(this::received);
+            response.endHandler(v -> ended());
+            synchronized (this) {
+                if (paused || subscribers.isEmpty()) {
+                    return;
+                }
+            }
+            response.resume();
+        }
+
+        private void received(Buffer chunk) {
+            boolean full = false;
+            if (cacheWriter != null && !cacheFailed) {
+                cacheWriter.getFile().write(chunk);
+                full = cacheWriter.getFile().writeQueueFull();
+            }
+            List<Subscription> signalled = new ArrayList<>();
+            boolean unjoinable = false;
+            boolean cancel;
+            boolean pause;
+            synchronized (this) {
+                chunks.add(chunk);
+                chunkCount++;
+                received += chunk.length();
+                if (joinable && received > bufferSize) {
+                    joinable = false;
+                    unjoinable = true;
+                }
+                subscribers.removeIf(subscription -> {
+                    if (received - subscription.position > bufferSize) {
+                        subscription.detached = true;
+                        return true;
+                    }
+                    if (subscription.waiting) {
+                        subscription.waiting = false;
+                        signalled.add(subscription);
+                    }
+                    return false;
+                });
+                trim();
+                // every consumer continues with its own request, nobody reads the rest of the shared one
+                cancel = subscribers.isEmpty() && !ended;
+                if (cancel) {
+                    ended = true;
+                    joinable = false;
+                }
+                cacheFull = full;
+                pause = cacheFull || shouldPause();
+                paused = pause;
+            }
+            if (cancel) {
+                LOGGER.info("Shared download of " + url + " cancelled, all consumers were detached.");
+                remove(url, this);
+                request.reset();
+                closeCacheFile(false);
+                return;
+            }
+            if (pause) {
+                response.pause();
+            }
+            if (unjoinable) {
+                remove(url, this);
+            }
+            signalled.forEach(Subscription::signal);
+        }
+
+        private void ended() {
+            finish(null);
+        }
+
+        private void failed(Throwable cause) {
+            synchronized (this) {
+                // the request is reset after the download was cancelled
+                if (ended) {
+                    return;
+                }
+            }
+            LOGGER.error("Shared download of " + url + " failed.", cause);
+            finish(cause);
+        }
+
+        private void finish(Throwable cause) {
+            List<Subscription> signalled = new ArrayList<>();
+            boolean head;
+            synchronized (this) {
+                if (ended) {
+                    return;
+                }
+                ended = true;
+                failure = cause;
+                joinable = false;
+                head = headReceived;
+                for (Subscription subscription : subscribers) {
+                    if (subscription.waiting || !head) {
+                        subscription.waiting = false;
+                        signalled.add(subscription);
+                    }
+                }
+            }
+            remove(url, this);
+            closeCacheFile(cause == null);
+            for (Subscription subscription : signalled) {
+                if (head) {
+                    subscription.signal();
+                } else {
+                    subscription.failed(cause);
+                }
+            }
+        }
+
+        /**
+         * Removes a consumer that finished, failed or was cancelled, the download is cancelled if it was the last.
+         */
+        private void unsubscribe(Subscription subscription) {
+            boolean cancel;
+            synchronized (this) {
+                if (!subscribers.remove(subscription)) {
+                    return;
+                }
+                trim();
+                cancel = subscribers.isEmpty() && !ended;
+                if (cancel) {
+                    ended = true;
+                    joinable = false;
+                }
+            }
+            if (!cancel) {
+                // the remaining consumers may all be ahead
+                resume();
+            } else {
+                LOGGER.info("Shared download of " + url + " cancelled, all consumers are gone.");
+                remove(url, this);
+                context.runOnContext(v -> {
+                    request.reset();
+                    closeCacheFile(false);
+                });
+            }
+        }
+
+        /**
+         * Resumes upstream if a consumer caught up or the cache file drained. May be called on any context.
+         */
+        private void resume() {
+            synchronized (this) {
+                if (!paused || ended || cacheFull || shouldPause()) {
+                    return;
+                }
+                paused = false;
+            }
+            context.runOnContext(v -> resumeResponse());
+        }
+
+        private void resumeResponse() {
+            synchronized (this) {
+                // paused again by a chunk received in the meantime
+                if (paused || response == null) {
+                    return;
+                }
+            }
+            response.resume();
+        }
+
+        /**
+         * Must be called while holding the lock.
+         */
+        private boolean shouldPause() {
+            if (subscribers.isEmpty()) {
+                return false;
+            }
+            for (Subscription subscription : subscribers) {
+                if (received - subscription.position < bufferSize / 2) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Drops the chunks read by all consumers once no one can join any more. Must be called while holding the lock.
+         */
+        private void trim() {
+            if (joinable) {
+                return;
+            }
+            long next = chunkCount;
+            for (Subscription subscription : subscribers) {
+                next = Math.min(next, subscription.index);
+            }
+            if (next > firstChunk) {
+                chunks.subList(0, (int) (next - firstChunk)).clear();
+                firstChunk = next;
+            }
+        }
+
+        private void closeCacheFile(boolean success) {
+            if (cacheWriter == null) {
+                return;
+            }
+            FileCache.CacheWriter writer = cacheWriter;
+            cacheWriter = null;
+            long size = received;
+            boolean failed = cacheFailed;
+            writer.getFile().close(closed -> {
+                if (success && closed.succeeded() && !failed) {
+                    fileCache.commit(writer, size);
+                } else {
+                    fileCache.discard(writer);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stream of the file for one consumer, read on the context it was opened on. It starts paused and gives access
+     * to the status code and headers of the shared upstream response.
+     */
+    public final class Subscription implements ReadStream<Buffer> {
+
+        private final String url;
+        private final Context context = Vertx.currentContext();
+        private final HttpClient httpClient;
+        private final Handler<AsyncResult<Subscription>> headHandler;
+        // guarded by the lock of the download
+        private Download download;
+        private long index;
+        private long position;
+        private boolean waiting;
+        private boolean detached;
+        // only used on the context of the consumer
+        private Handler<Buffer> handler;
+        private Handler<Void> endHandler;
+        private Handler<Throwable> exceptionHandler;
+        private boolean paused = true;
+        private boolean done;
+        private HttpClientRequest ownRequest;
+        private HttpClientResponse ownResponse;
+        private long skip;
+
+        private Subscription(String url, HttpClient httpClient, Handler<AsyncResult<Subscription>> headHandler) {
+            this.url = url;
+            this.httpClient = httpClient;
+            this.headHandler = headHandler;
+        }
+
+        /**
+         * @return status code of the upstream response, only the body of 200 responses is streamed
+         */
+        public int statusCode() {
+            return download.statusCode;
+        }
+
+        public String getHeader(CharSequence name) {
+            return download.headers.get(name);
+        }
+
+        /**
+         * Stops reading, the download is cancelled if no other consumer is left.
+         */
+        public void cancel() {
+            done = true;
+            if (ownRequest != null) {
+                ownRequest.reset();
+            }
+            download.unsubscribe(this);
+        }
+
+        private void headReceived() {
+            context.runOnContext(v -> {
+                if (!done) {
+                    headHandler.handle(Future.succeededFuture(this));
+                }
+            });
+        }
+
+        private void failed(Throwable cause) {
+            context.runOnContext(v -> {
+                if (!done) {
+                    done = true;
+                    headHandler.handle(Future.failedFuture(cause));
+                }
+            });
+        }
+
+        private void signal() {
+            context.runOnContext(v -> pump());
+        }
+
+        private void pump() {
+            while (!paused && !done && ownRequest == null) {
+                Buffer chunk = null;
+                boolean own = false;
+                boolean end = false;
+                Throwable failure = null;
+                synchronized (download) {
+                    if (detached) {
+                        own = true;
+                    } else if (index < download.chunkCount) {
+                        chunk = download.chunks.get((int) (index - download.firstChunk));
+                        index++;
+                        position += chunk.length();
+                    } else if (download.failure != null) {
+                        failure = download.failure;
+                    } else if (download.ended) {
+                        end = true;
+                    } else {
+                        waiting = true;
+                    }
+                }
+                if (chunk != null) {
+                    handler.handle(chunk);
+                    download.resume();
+                } else if (own) {
+                    requestOwn();
+                } else if (failure != null) {
+                    fail(failure);
+                } else if (end) {
+                    end();
+                } else {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Continues with an own upstream request for the remaining bytes, since the consumer lags too far behind.
+         */
+        private void requestOwn() {
+            LOGGER.info("Consumer lags behind the shared download of " + url + " by more than " + bufferSize + " bytes, continuing with its own request.");
+            AdapterMetrics.registry().counter(AdapterMetrics.FILE_DOWNLOAD_FALLBACKS).increment();
+            ownRequest = httpClient.requestAbs(HttpMethod.GET, url)
+                    .setFollowRedirects(true);
+            ownRequest.putHeader(RANGE, "bytes=" + position + "-");
+            // a weak ETag must not be used for If-Range
+            String etag = getHeader(HttpHeaders.ETAG);
+            String validator = etag != null && !etag.startsWith("W/") ? etag : getHeader(HttpHeaders.LAST_MODIFIED);
+            if (validator != null) {
+                ownRequest.putHeader(IF_RANGE, validator);
+            }
+            ownRequest.handler(response -> {
+                if (response.statusCode() != 200 && response.statusCode() != 206) {
+                    fail(new VertxException("Upstream responded with status code " + response.statusCode()));
+                    return;
+                }
+                // the file changed or upstream ignores ranges, the bytes already sent are skipped
+                skip = response.statusCode() == 200 ? position : 0;
+                ownResponse = response;
+                response.handler(this::ownChunk);
+                response.endHandler(v -> end());
+                response.exceptionHandler(this::fail);
+                if (paused) {
+                    response.pause();
+                }
+            });
+            ownRequest.exceptionHandler(this::fail);
+            ownRequest.end();
+        }
+
+        private void ownChunk(Buffer chunk) {
+            if (done) {
+                return;
+            }
+            if (skip >= chunk.length()) {
+                skip -= chunk.length();
+                return;
+            }
+            if (skip > 0) {
+                chunk = chunk.getBuffer((int) skip, chunk.length());
+                skip = 0;
+            }
+            handler.handle(chunk);
+        }
+
+        private void end() {
+            if (done) {
+                return;
+            }
+            done = true;
+            download.unsubscribe(this);
+            if (endHandler != null) {
+                endHandler.handle(null);
+            }
+        }
+
+        private void fail(Throwable cause) {
+            if (done) {
+                return;
+            }
+            done = true;
+            download.unsubscribe(this);
+            if (exceptionHandler != null) {
+                exceptionHandler.handle(cause);
+            }
+        }
+
+        @Override
+        public ReadStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+            this.exceptionHandler = handler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> handler(Handler<Buffer> handler) {
+            this.handler = handler;
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> pause() {
+            paused = true;
+            if (ownResponse != null) {
+                ownResponse.pause();
+            }
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> resume() {
+            paused = false;
+            if (ownResponse != null) {
+                ownResponse.resume();
+            } else {
+                pump();
+            }
+            return this;
+        }
+
+        @Override
+        public ReadStream<Buffer> fetch(long amount) {
+            return amount > 0 ? resume() : this;
+        }
+
+        @Override
+        public ReadStream<Buffer> endHandler(Handler<Void> endHandler) {
+            this.endHandler = endHandler;
+            return this;
+        }
+    }
+}
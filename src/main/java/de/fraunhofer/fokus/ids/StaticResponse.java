@@ -0,0 +1,102 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import org.apache.http.entity.ContentType;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * JSON response of an endpoint that does not change while the adapter is running, e.g. the form schemas. The body is
+ * serialized once together with an ETag derived from it. Conditional GET and HEAD requests whose
+ * If-None-Match header matches the ETag are answered with 304 Not Modified and no body.
+ * <p>
+ * The response may be sent compressed, depending on the Accept-Encoding of the request. The ETag is therefore weak,
+ * since the compressed and the uncompressed body are equivalent but not byte for byte the same, and the Vary
+ * header tells caches to keep the two apart.
+ * <p>
+ * Instances are immutable and shared by all HTTP server instances, {@link Buffer#getByteBuf()} hands every response
+ * its own view of the body.
+ */
+public class StaticResponse implements Handler<RoutingContext> {
+
+    private static final CharSequence VARY = HttpHeaders.createOptimized("vary");
+
+    private final Buffer body;
+    private final String contentLength;
+    private final String etag;
+    private final String opaqueTag;
+    private final String cacheControl;
+
+    /**
+     * @param maxAge seconds clients may use the response without revalidating it
+     */
+    public StaticResponse(JsonObject json, long maxAge) {
+        this.body = json.toBuffer();
+        this.contentLength = String.valueOf(body.length());
+        this.opaqueTag = opaqueTag(body);
+        this.etag = "W/" + opaqueTag;
+        this.cacheControl = "public, max-age=" + maxAge;
+    }
+
+    public String etag() {
+        return etag;
+    }
+
+    @Override
+    public void handle(RoutingContext routingContext) {
+        HttpServerRequest request = routingContext.request();
+        routingContext.response()
+                .putHeader(HttpHeaders.ETAG, etag)
+                .putHeader(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .putHeader(VARY, HttpHeaders.ACCEPT_ENCODING);
+        if ((request.method() == HttpMethod.GET || request.method() == HttpMethod.HEAD)
+                && matches(request.getHeader(HttpHeaders.IF_NONE_MATCH))) {
+            routingContext.response().setStatusCode(304).end();
+        } else {
+            routingContext.response()
+                    .putHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString())
+                    .putHeader(HttpHeaders.CONTENT_LENGTH, contentLength)
+                    .end(body);
+        }
+    }
+
+    /**
+     * Weak comparison as required for If-None-Match by RFC 7232, i.e. the "W/" prefixes are ignored.
+     */
+    private boolean matches(String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(Buffer body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body.getBytes());
+            StringBuilder tag = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++) {
+                tag.append(String.format("%02x", digest[i]));
+            }
+            return tag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package de.fraunhofer.fokus.ids;
+
+/**
+ * Token bucket limiting the bandwidth of a consumer, shared by all transfers of the consumer.
+ * The bucket holds up to one second worth of bytes, so short bursts are sent at full speed.
+ * Instances are thread safe, since transfers of a consumer may run on different event loops.
+ */
+public class TokenBucket {
+
+    private final long bytesPerSecond;
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond sustained bandwidth in bytes per second
+     */
+    public TokenBucket(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(1, bytesPerSecond);
+        this.tokens = this.bytesPerSecond;
+    }
+
+    /**
+     * Takes the bytes from the bucket, which goes into debt if it holds fewer tokens.
+     *
+     * @return milliseconds to wait before sending more, 0 if the bucket is not in debt
+     */
+    public synchronized long take(long bytes) {
+        refill();
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / bytesPerSecond);
+    }
+
+    /**
+     * @return true if the bucket is refilled completely, i.e. dropping it does not grant a consumer an extra burst
+     */
+    public synchronized boolean isFull() {
+        refill();
+        return tokens >= bytesPerSecond;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(bytesPerSecond, tokens + (now - lastRefill) * bytesPerSecond / 1e9);
+        lastRefill = now;
+    }
+}
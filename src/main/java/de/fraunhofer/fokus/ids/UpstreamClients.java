@@ -0,0 +1,56 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClientOptions;
+
+/**
+ * Options of the HTTP clients used for all upstream (Zenodo) traffic, so that pool sizes, protocol and timeouts
+ * are configured in one place. With HTTP/2 enabled the protocol is negotiated via ALPN and requests are
+ * multiplexed over a few connections, servers without HTTP/2 are still talked to via HTTP/1.1 and the pool.
+ */
+public final class UpstreamClients {
+
+    private static final int HTTP2_CONNECTION_WINDOW_SIZE = 16 * 1024 * 1024;
+
+    private UpstreamClients() {
+    }
+
+    /**
+     * Options for metadata calls (records, search), which ask for gzip compressed responses.
+     */
+    public static WebClientOptions metadataOptions(JsonObject config) {
+        return options(config)
+                .setTryUseCompression(true);
+    }
+
+    /**
+     * Options for file downloads. They are not compressed, since the bytes and headers of the upstream response,
+     * e.g. Content-Length and Content-Range, are passed through to the client unchanged.
+     */
+    public static WebClientOptions downloadOptions(JsonObject config) {
+        return options(config)
+                .setTryUseCompression(false);
+    }
+
+    private static WebClientOptions options(JsonObject config) {
+        int idleTimeout = config.getInteger(ApplicationConfig.ENV_UPSTREAM_IDLE_TIMEOUT, ApplicationConfig.DEFAULT_UPSTREAM_IDLE_TIMEOUT);
+        WebClientOptions options = new WebClientOptions()
+                .setTrustAll(true)
+                .setMaxPoolSize(config.getInteger(ApplicationConfig.ENV_UPSTREAM_MAX_POOL_SIZE, ApplicationConfig.DEFAULT_UPSTREAM_MAX_POOL_SIZE))
+                .setConnectTimeout(config.getInteger(ApplicationConfig.ENV_UPSTREAM_CONNECT_TIMEOUT, ApplicationConfig.DEFAULT_UPSTREAM_CONNECT_TIMEOUT))
+                .setIdleTimeout(idleTimeout)
+                .setKeepAlive(true)
+                .setKeepAliveTimeout(idleTimeout)
+                .setTcpNoDelay(true);
+        if (config.getBoolean(ApplicationConfig.ENV_UPSTREAM_HTTP2, ApplicationConfig.DEFAULT_UPSTREAM_HTTP2)) {
+            options.setProtocolVersion(HttpVersion.HTTP_2)
+                    .setUseAlpn(true)
+                    .setHttp2MaxPoolSize(config.getInteger(ApplicationConfig.ENV_UPSTREAM_HTTP2_MAX_POOL_SIZE, ApplicationConfig.DEFAULT_UPSTREAM_HTTP2_MAX_POOL_SIZE))
+                    .setHttp2KeepAliveTimeout(idleTimeout)
+                    // large downloads sharing one connection must not be throttled by the default 64 KB window
+                    .setHttp2ConnectionWindowSize(HTTP2_CONNECTION_WINDOW_SIZE);
+        }
+        return options;
+    }
+}
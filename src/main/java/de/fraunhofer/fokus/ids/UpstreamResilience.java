@@ -0,0 +1,287 @@
+package de.fraunhofer.fokus.ids;
+
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxException;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import io.vertx.ext.web.client.predicate.ErrorConverter;
+import io.vertx.ext.web.client.predicate.ResponsePredicate;
+import io.vertx.ext.web.client.predicate.ResponsePredicateResult;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Retries and circuit breaking for idempotent upstream calls.
+ * <ul>
+ * <li>Transport failures and the status codes 429, 502, 503 and 504 are retried with exponential backoff and
+ * jitter, a Retry-After header of the response is respected. Calls are given up if Retry-After exceeds the
+ * maximum delay, so that requests do not pile up while upstream is overloaded.</li>
+ * <li>Every upstream host has a circuit breaker shared by all users in the JVM. It opens after a number of
+ * consecutive failed attempts and then fails calls immediately. Once the open time is over a single trial call is
+ * let through, which closes the circuit again if it succeeds.</li>
+ * </ul>
+ * Other responses, e.g. 404, count as success for the circuit breaker since the host is reachable.
+ */
+public class UpstreamResilience {
+
+    private static final String MAP_NAME = "upstream-circuits";
+
+    /**
+     * Fails responses that are worth retrying with an {@link UpstreamException}. It must be added before the
+     * predicates rejecting other status codes.
+     */
+    public static final ResponsePredicate RETRYABLE_STATUS = ResponsePredicate.create(response -> {
+        int statusCode = response.statusCode();
+        return statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504
+                ? ResponsePredicateResult.failure("Response status code " + statusCode + " is retryable")
+                : ResponsePredicateResult.success();
+        // the converter only gets the response, including the short error body, if it asks for the body
+    }, ErrorConverter.createFullBody(result -> new UpstreamException(result.message(), result.response().statusCode(),
+            retryAfter(result.response().getHeader(HttpHeaders.RETRY_AFTER.toString())), true)));
+
+    private final Logger LOGGER = LoggerFactory.getLogger(UpstreamResilience.class.getName());
+
+    private final Vertx vertx;
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+    private final int failureThreshold;
+    private final long openTime;
+
+    public UpstreamResilience(Vertx vertx, JsonObject config) {
+        this(vertx,
+                config.getInteger(ApplicationConfig.ENV_UPSTREAM_RETRY_MAX_ATTEMPTS, ApplicationConfig.DEFAULT_UPSTREAM_RETRY_MAX_ATTEMPTS),
+                config.getLong(ApplicationConfig.ENV_UPSTREAM_RETRY_BASE_DELAY, ApplicationConfig.DEFAULT_UPSTREAM_RETRY_BASE_DELAY),
+                config.getLong(ApplicationConfig.ENV_UPSTREAM_RETRY_MAX_DELAY, ApplicationConfig.DEFAULT_UPSTREAM_RETRY_MAX_DELAY),
+                config.getInteger(ApplicationConfig.ENV_UPSTREAM_CIRCUIT_FAILURE_THRESHOLD, ApplicationConfig.DEFAULT_UPSTREAM_CIRCUIT_FAILURE_THRESHOLD),
+                config.getLong(ApplicationConfig.ENV_UPSTREAM_CIRCUIT_OPEN_TIME, ApplicationConfig.DEFAULT_UPSTREAM_CIRCUIT_OPEN_TIME));
+    }
+
+    /**
+     * @param maxAttempts      number of attempts including the first call
+     * @param baseDelay        delay in milliseconds before the first retry, doubled for every further retry
+     * @param maxDelay         upper bound of a delay in milliseconds
+     * @param failureThreshold consecutive failed attempts after which the circuit of a host opens, 0 disables the circuit breaker
+     * @param openTime         time in milliseconds an open circuit fails calls before a trial call is let through
+     */
+    public UpstreamResilience(Vertx vertx, int maxAttempts, long baseDelay, long maxDelay, int failureThreshold, long openTime) {
+        this.vertx = vertx;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = Math.max(1, baseDelay);
+        this.maxDelay = Math.max(this.baseDelay, maxDelay);
+        this.failureThreshold = failureThreshold;
+        this.openTime = openTime;
+    }
+
+    /**
+     * @param url  URL of the call, its host and port identify the circuit
+     * @param call supplier starting one attempt of the call, invoked again for every retry
+     * @return future completed with the result of the last attempt, or failed with an {@link UpstreamException}
+     * if the circuit is open
+     */
+    public <T> Future<T> execute(String url, Supplier<Future<T>> call) {
+        String host = host(url);
+        Promise<T> promise = Promise.promise();
+        attempt(host, failureThreshold > 0 ? circuit(host) : null, call, 1, promise);
+        return promise.future();
+    }
+
+    private <T> void attempt(String host, Circuit circuit, Supplier<Future<T>> call, int attempt, Promise<T> promise) {
+        long now = System.currentTimeMillis();
+        if (circuit != null && !circuit.allow(now, openTime)) {
+            AdapterMetrics.registry().counter(AdapterMetrics.UPSTREAM_CIRCUIT_REJECTED, "host", host).increment();
+            promise.fail(new UpstreamException("Circuit of " + host + " is open", 503, circuit.remaining(now), false));
+            return;
+        }
+
+        Future<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            future = Future.failedFuture(e);
+        }
+        future.onComplete(ar -> {
+            if (ar.succeeded() || !retryable(ar.cause())) {
+                if (circuit != null) {
+                    circuit.succeeded();
+                }
+                promise.handle(ar);
+                return;
+            }
+            if (circuit != null && circuit.failed(System.currentTimeMillis(), failureThreshold, openTime)) {
+                LOGGER.warn("Circuit of " + host + " opened for " + openTime + " ms after " + failureThreshold + " failed calls.");
+                promise.fail(ar.cause());
+                return;
+            }
+            long delay = delay(attempt, ar.cause());
+            if (attempt >= maxAttempts || delay < 0) {
+                promise.fail(ar.cause());
+                return;
+            }
+            LOGGER.info("Attempt " + attempt + " of call to " + host + " failed (" + ar.cause().getMessage() + "), retrying in " + delay + " ms.");
+            AdapterMetrics.registry().counter(AdapterMetrics.UPSTREAM_RETRIES, "host", host).increment();
+            vertx.setTimer(delay, timer -> attempt(host, circuit, call, attempt + 1, promise));
+        });
+    }
+
+    /**
+     * @return delay before the next attempt in milliseconds, negative if Retry-After asks to wait longer than the
+     * maximum delay
+     */
+    private long delay(int attempt, Throwable cause) {
+        long backoff = Math.min(maxDelay, baseDelay << Math.min(attempt - 1, 20));
+        // equal jitter keeps a minimum distance between the attempts and spreads the retries of parallel calls
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        long retryAfter = cause instanceof UpstreamException ? ((UpstreamException) cause).getRetryAfter() : -1;
+        if (retryAfter > maxDelay) {
+            return -1;
+        }
+        return Math.max(delay, retryAfter);
+    }
+
+    static boolean retryable(Throwable cause) {
+        if (cause instanceof UpstreamException) {
+            return ((UpstreamException) cause).isRetryable();
+        }
+        // connection refused, reset or closed, timeouts, unknown hosts; the response was not received
+        return cause instanceof IOException
+                || cause instanceof TimeoutException
+                || (cause instanceof VertxException && !(cause instanceof DecodeException));
+    }
+
+    /**
+     * @param value Retry-After header, delay in seconds or HTTP date
+     * @return delay in milliseconds, -1 if the header is missing or invalid
+     */
+    static long retryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)).toMillis());
+            } catch (DateTimeParseException invalid) {
+                return -1;
+            }
+        }
+    }
+
+    private static String host(String url) {
+        try {
+            URI uri = new URI(url);
+            return uri.getPort() >= 0 ? uri.getHost() + ":" + uri.getPort() : String.valueOf(uri.getHost());
+        } catch (Exception e) {
+            return url;
+        }
+    }
+
+    private Circuit circuit(String host) {
+        LocalMap<String, Circuit> circuits = vertx.sharedData().getLocalMap(MAP_NAME);
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            Circuit created = new Circuit();
+            circuit = circuits.putIfAbsent(host, created);
+            if (circuit == null) {
+                circuit = created;
+            }
+        }
+        return circuit;
+    }
+
+    /**
+     * Circuit of an upstream host, shared by all contexts via a local map.
+     */
+    private static final class Circuit implements Shareable {
+        private int failures;
+        private long openUntil;
+        private long trialStarted;
+
+        /**
+         * @return true if the call may be made, which is the trial call if the open time is over
+         */
+        private synchronized boolean allow(long now, long openTime) {
+            if (openUntil == 0) {
+                return true;
+            }
+            // a trial call that never completed does not keep the circuit open forever
+            if (now < openUntil || (trialStarted > 0 && now - trialStarted < openTime)) {
+                return false;
+            }
+            trialStarted = now;
+            return true;
+        }
+
+        private synchronized long remaining(long now) {
+            return Math.max(0, openUntil - now);
+        }
+
+        private synchronized void succeeded() {
+            failures = 0;
+            openUntil = 0;
+            trialStarted = 0;
+        }
+
+        /**
+         * @return true if the circuit was opened by this failure
+         */
+        private synchronized boolean failed(long now, int failureThreshold, long openTime) {
+            failures++;
+            if (trialStarted > 0 || (openUntil == 0 && failures >= failureThreshold)) {
+                boolean opened = openUntil == 0;
+                openUntil = now + openTime;
+                trialStarted = 0;
+                return opened;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Failure of an upstream call that was answered with an error status or rejected by an open circuit.
+     */
+    public static class UpstreamException extends VertxException {
+
+        private final int statusCode;
+        private final long retryAfter;
+        private final boolean retryable;
+
+        /**
+         * @param retryAfter delay in milliseconds requested by upstream, -1 if none
+         */
+        public UpstreamException(String message, int statusCode, long retryAfter, boolean retryable) {
+            super(message, true);
+            this.statusCode = statusCode;
+            this.retryAfter = retryAfter;
+            this.retryable = retryable;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package de.fraunhofer.fokus.ids.services.database;
+
+/**
+ * Statements of the typed access information operations, shared by the database service implementations.
+ */
+final class AccessInformationSql {
+
+    static final String FIND_URL = "SELECT url FROM accessinformation WHERE datasetid = ? AND distributionid = ?";
+    static final String INSERT = "INSERT INTO accessinformation (created_at, updated_at, datasetid, distributionid, url) VALUES (?, ?, ?, ?, ?)";
+    static final String DELETE_BY_DATASET = "DELETE FROM accessinformation WHERE datasetid = ?";
+
+    private AccessInformationSql() {
+    }
+}
@@ -9,9 +9,9 @@ import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
-import io.vertx.ext.sql.SQLClient;
 
 import java.util.List;
+import java.util.Map;
 
 @ProxyGen
 @VertxGen
@@ -23,10 +23,46 @@ public interface DatabaseService {
     @Fluent
     DatabaseService update(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler);
 
-    @GenIgnore
-    static DatabaseService create(SQLClient dbClient, Handler<AsyncResult<DatabaseService>> readyHandler) {
-        return new DatabaseServiceImpl(dbClient, readyHandler);
-    }
+    /**
+     * Executes the query once per parameter set, atomically in a single transaction.
+     */
+    @Fluent
+    DatabaseService batchWithParams(String query, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler);
+
+    /**
+     * Executes the given statements atomically in a single transaction.
+     */
+    @Fluent
+    DatabaseService batch(List<String> statements, Handler<AsyncResult<List<Integer>>> resultHandler);
+
+    /**
+     * Executes every query with the parameter set at the same index, in order and atomically in a single transaction.
+     *
+     * @return the number of rows changed by each query
+     */
+    @Fluent
+    DatabaseService transaction(List<String> queries, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler);
+
+    /**
+     * @return the URL of the distribution, null if it is unknown
+     */
+    @Fluent
+    DatabaseService findAccessUrl(String datasetId, String distributionId, Handler<AsyncResult<String>> resultHandler);
+
+    /**
+     * Inserts the access information of several distributions of a dataset in a single transaction.
+     *
+     * @param distributionUrls upstream URLs keyed by distribution id
+     * @return the number of inserted rows
+     */
+    @Fluent
+    DatabaseService insertAccessInformation(String datasetId, Map<String, String> distributionUrls, Handler<AsyncResult<Integer>> resultHandler);
+
+    /**
+     * @return the number of deleted rows
+     */
+    @Fluent
+    DatabaseService deleteAccessInformation(String datasetId, Handler<AsyncResult<Integer>> resultHandler);
 
     @GenIgnore
     static DatabaseService createProxy(Vertx vertx, String address) {
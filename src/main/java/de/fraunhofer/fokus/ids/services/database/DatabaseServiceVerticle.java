@@ -1,22 +1,29 @@
 package de.fraunhofer.fokus.ids.services.database;
 
 import de.fraunhofer.fokus.ids.ApplicationConfig;
+import de.fraunhofer.fokus.ids.LocalServices;
 import io.vertx.config.ConfigRetriever;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
-import io.vertx.ext.jdbc.JDBCClient;
-import io.vertx.ext.sql.SQLClient;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgPool;
 import io.vertx.serviceproxy.ServiceBinder;
+import io.vertx.sqlclient.PoolOptions;
 
 public class DatabaseServiceVerticle extends AbstractVerticle {
 
     private final Logger LOGGER = LoggerFactory.getLogger(DatabaseServiceVerticle.class.getName());
 
+    private SqliteEngine engine;
+    private PgPool pgPool;
+
     @Override
     public void start(Future<Void> startFuture) {
 
@@ -29,19 +36,15 @@ public class DatabaseServiceVerticle extends AbstractVerticle {
 
         retriever.getConfig(ar -> {
             if (ar.succeeded()) {
-                JsonObject env = ar.result();
-                JsonObject config = new JsonObject()
-                        .put("url", "jdbc:sqlite:" + env.getString(ApplicationConfig.ENV_SQLITE_DB_NAME, ApplicationConfig.DEFAULT_SQLITE_DB_NAME) + ".db")
-                        .put("driver_class", "org.sqlite.jdbcDriver")
-                        .put("max_pool_size", 30);
-
-                SQLClient jdbc = JDBCClient.createShared(vertx, config);
-                DatabaseService.create(jdbc, ready -> {
+                createService(ar.result(), ready -> {
                     if (ready.succeeded()) {
                         ServiceBinder binder = new ServiceBinder(vertx);
                         binder
                                 .setAddress(ApplicationConfig.DATABASE_SERVICE)
                                 .register(DatabaseService.class, ready.result());
+                        if (ar.result().getBoolean(ApplicationConfig.ENV_LOCAL_SERVICE_CALLS, ApplicationConfig.DEFAULT_LOCAL_SERVICE_CALLS)) {
+                            LocalServices.register(vertx, ApplicationConfig.DATABASE_SERVICE, ready.result());
+                        }
                         startFuture.complete();
                     } else {
                         startFuture.fail(ready.cause());
@@ -53,4 +56,53 @@ public class DatabaseServiceVerticle extends AbstractVerticle {
         });
     }
 
+    /**
+     * Creates the service for the configured backend: the single-writer SQLite engine (default) or PostgreSQL.
+     */
+    private void createService(JsonObject env, Handler<AsyncResult<DatabaseService>> readyHandler) {
+        String backend = env.getString(ApplicationConfig.ENV_DB_BACKEND, ApplicationConfig.DEFAULT_DB_BACKEND);
+        switch (backend) {
+            case ApplicationConfig.DB_BACKEND_POSTGRES:
+                PgConnectOptions connectOptions = new PgConnectOptions()
+                        .setHost(env.getString(ApplicationConfig.ENV_PG_HOST, ApplicationConfig.DEFAULT_PG_HOST))
+                        .setPort(env.getInteger(ApplicationConfig.ENV_PG_PORT, ApplicationConfig.DEFAULT_PG_PORT))
+                        .setDatabase(env.getString(ApplicationConfig.ENV_PG_DATABASE, ApplicationConfig.DEFAULT_PG_DATABASE))
+                        .setUser(env.getString(ApplicationConfig.ENV_PG_USER, ApplicationConfig.DEFAULT_PG_USER))
+                        .setPassword(env.getString(ApplicationConfig.ENV_PG_PASSWORD, ApplicationConfig.DEFAULT_PG_PASSWORD))
+                        .setCachePreparedStatements(true);
+                pgPool = PgPool.pool(vertx, connectOptions, new PoolOptions()
+                        .setMaxSize(env.getInteger(ApplicationConfig.ENV_PG_POOL_SIZE, ApplicationConfig.DEFAULT_PG_POOL_SIZE)));
+                LOGGER.info("Using PostgreSQL database " + connectOptions.getDatabase() + " on " + connectOptions.getHost() + ":" + connectOptions.getPort() + ".");
+                new PgDatabaseServiceImpl(pgPool, readyHandler);
+                break;
+            case ApplicationConfig.DB_BACKEND_SQLITE:
+                engine = new SqliteEngine(vertx,
+                        env.getString(ApplicationConfig.ENV_SQLITE_DB_NAME, ApplicationConfig.DEFAULT_SQLITE_DB_NAME) + ".db",
+                        env.getInteger(ApplicationConfig.ENV_SQLITE_READ_CONNECTIONS, ApplicationConfig.DEFAULT_SQLITE_READ_CONNECTIONS));
+                engine.start(started -> {
+                    if (started.succeeded()) {
+                        new SqliteDatabaseServiceImpl(engine, readyHandler);
+                    } else {
+                        LOGGER.error("SQLite engine could not be started.", started.cause());
+                        readyHandler.handle(Future.failedFuture(started.cause()));
+                    }
+                });
+                break;
+            default:
+                readyHandler.handle(Future.failedFuture("Unknown database backend " + backend + "."));
+        }
+    }
+
+    @Override
+    public void stop(Future<Void> stopFuture) {
+        LocalServices.unregister(vertx, ApplicationConfig.DATABASE_SERVICE);
+        if (pgPool != null) {
+            pgPool.close();
+        }
+        if (engine != null) {
+            engine.close(stopFuture);
+        } else {
+            stopFuture.complete();
+        }
+    }
 }
@@ -0,0 +1,260 @@
+package de.fraunhofer.fokus.ids.services.database;
+
+import de.fraunhofer.fokus.ids.AdapterMetrics;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.Row;
+import io.vertx.sqlclient.RowSet;
+import io.vertx.sqlclient.Transaction;
+import io.vertx.sqlclient.Tuple;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Database service on top of the non-blocking Vert.x PostgreSQL client. Statements are sent as prepared queries,
+ * which the pool caches per connection and pipelines on the wire. The "?" placeholders used by the callers are
+ * rewritten to the "$n" placeholders of PostgreSQL.
+ */
+public class PgDatabaseServiceImpl implements DatabaseService {
+    private final Logger LOGGER = LoggerFactory.getLogger(PgDatabaseServiceImpl.class.getName());
+
+    private static final String FIND_URL = placeholders(AccessInformationSql.FIND_URL);
+    private static final String INSERT = placeholders(AccessInformationSql.INSERT);
+    private static final String DELETE_BY_DATASET = placeholders(AccessInformationSql.DELETE_BY_DATASET);
+
+    private final PgPool pool;
+
+    public PgDatabaseServiceImpl(PgPool pool, Handler<AsyncResult<DatabaseService>> readyHandler) {
+        this.pool = pool;
+        readyHandler.handle(Future.succeededFuture(this));
+    }
+
+    @Override
+    public DatabaseService query(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        long start = System.nanoTime();
+        pool.preparedQuery(placeholders(query)).execute(tuple(params), ar -> {
+            record("query", ar.succeeded(), start);
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(rows(ar.result())));
+            } else {
+                LOGGER.error("Query failed.", ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause().toString()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public DatabaseService update(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        long start = System.nanoTime();
+        pool.preparedQuery(placeholders(query)).execute(tuple(params), ar -> {
+            record("update", ar.succeeded(), start);
+            if (ar.succeeded()) {
+                LOGGER.debug("No. of rows updated: " + ar.result().rowCount());
+                resultHandler.handle(Future.succeededFuture(new ArrayList<>()));
+            } else {
+                LOGGER.error("Update failed.", ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause().toString()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public DatabaseService batchWithParams(String query, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler) {
+        if (params.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture(new ArrayList<>()));
+            return this;
+        }
+        inTransaction(transaction -> Future.<RowSet<Row>>future(batch -> transaction.preparedQuery(placeholders(query))
+                .executeBatch(params.stream().map(this::tuple).collect(Collectors.toList()), batch))
+                .map(rowSets -> {
+                    List<Integer> counts = new ArrayList<>();
+                    for (RowSet<Row> rowSet = rowSets; rowSet != null; rowSet = rowSet.next()) {
+                        counts.add(rowSet.rowCount());
+                    }
+                    return counts;
+                }), resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService batch(List<String> statements, Handler<AsyncResult<List<Integer>>> resultHandler) {
+        inTransaction(transaction -> {
+            List<Integer> counts = new ArrayList<>();
+            Future<Void> sequence = Future.succeededFuture();
+            for (String statement : statements) {
+                sequence = sequence.compose(v -> Future.<RowSet<Row>>future(execute -> transaction.query(statement).execute(execute))
+                        .map(rowSet -> {
+                            counts.add(rowSet.rowCount());
+                            return null;
+                        }));
+            }
+            return sequence.map(counts);
+        }, resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService transaction(List<String> queries, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler) {
+        inTransaction(transaction -> {
+            List<Integer> counts = new ArrayList<>();
+            Future<Void> sequence = Future.succeededFuture();
+            for (int i = 0; i < queries.size(); i++) {
+                String query = placeholders(queries.get(i));
+                Tuple tuple = tuple(params.get(i));
+                sequence = sequence.compose(v -> Future.<RowSet<Row>>future(execute -> transaction.preparedQuery(query).execute(tuple, execute))
+                        .map(rowSet -> {
+                            counts.add(rowSet.rowCount());
+                            return null;
+                        }));
+            }
+            return sequence.map(counts);
+        }, resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService findAccessUrl(String datasetId, String distributionId, Handler<AsyncResult<String>> resultHandler) {
+        long start = System.nanoTime();
+        pool.preparedQuery(FIND_URL).execute(Tuple.of(datasetId, distributionId), ar -> {
+            record("query", ar.succeeded(), start);
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(ar.result().iterator().hasNext()
+                        ? ar.result().iterator().next().getString(0)
+                        : null));
+            } else {
+                LOGGER.error("Query failed.", ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause().toString()));
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public DatabaseService insertAccessInformation(String datasetId, Map<String, String> distributionUrls, Handler<AsyncResult<Integer>> resultHandler) {
+        if (distributionUrls.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture(0));
+            return this;
+        }
+        String now = Instant.now().toString();
+        List<Tuple> rows = distributionUrls.entrySet().stream()
+                .map(distributionUrl -> Tuple.of(now, now, datasetId, distributionUrl.getKey(), distributionUrl.getValue()))
+                .collect(Collectors.toList());
+        inTransaction(transaction -> Future.<RowSet<Row>>future(batch -> transaction.preparedQuery(INSERT).executeBatch(rows, batch))
+                .map(rows.size()), resultHandler);
+        return this;
+    }
+
+    @Override
+    public DatabaseService deleteAccessInformation(String datasetId, Handler<AsyncResult<Integer>> resultHandler) {
+        long start = System.nanoTime();
+        pool.preparedQuery(DELETE_BY_DATASET).execute(Tuple.of(datasetId), ar -> {
+            record("update", ar.succeeded(), start);
+            if (ar.succeeded()) {
+                resultHandler.handle(Future.succeededFuture(ar.result().rowCount()));
+            } else {
+                LOGGER.error("Update failed.", ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause().toString()));
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Runs the work in a transaction, which is committed if the work succeeds and rolled back otherwise.
+     */
+    private <T> void inTransaction(Function<Transaction, Future<T>> work, Handler<AsyncResult<T>> resultHandler) {
+        long start = System.nanoTime();
+        pool.begin(begin -> {
+            if (begin.failed()) {
+                LOGGER.error("Transaction could not be started.", begin.cause());
+                resultHandler.handle(Future.failedFuture(begin.cause().toString()));
+                return;
+            }
+            Transaction transaction = begin.result();
+            work.apply(transaction)
+                    .compose(result -> Future.<Void>future(transaction::commit).map(result))
+                    .onComplete(ar -> {
+                        record("transaction", ar.succeeded(), start);
+                        if (ar.succeeded()) {
+                            resultHandler.handle(Future.succeededFuture(ar.result()));
+                        } else {
+                            LOGGER.error("Transaction failed.", ar.cause());
+                            transaction.rollback(rollback -> transaction.close());
+                            resultHandler.handle(Future.failedFuture(ar.cause().toString()));
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Rewrites the JDBC style "?" placeholders to "$1", "$2", ... outside of quoted literals and identifiers.
+     */
+    static String placeholders(String query) {
+        StringBuilder rewritten = new StringBuilder(query.length() + 8);
+        int index = 0;
+        char quote = 0;
+        for (char c : query.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+                rewritten.append(c);
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                rewritten.append(c);
+            } else if (c == '?') {
+                rewritten.append('$').append(++index);
+            } else {
+                rewritten.append(c);
+            }
+        }
+        return rewritten.toString();
+    }
+
+    private Tuple tuple(JsonArray params) {
+        Tuple tuple = Tuple.tuple();
+        if (params != null) {
+            for (Object value : params) {
+                tuple.addValue(value instanceof Instant ? value.toString() : value);
+            }
+        }
+        return tuple;
+    }
+
+    private List<JsonObject> rows(RowSet<Row> rowSet) {
+        List<JsonObject> rows = new ArrayList<>(rowSet.size());
+        for (Row row : rowSet) {
+            JsonObject json = new JsonObject();
+            for (int column = 0; column < row.size(); column++) {
+                Object value = row.getValue(column);
+                json.put(row.getColumnName(column), isJsonValue(value) ? value : String.valueOf(value));
+            }
+            rows.add(json);
+        }
+        return rows;
+    }
+
+    private boolean isJsonValue(Object value) {
+        return value == null || value instanceof String || value instanceof Integer || value instanceof Long
+                || value instanceof Double || value instanceof Float || value instanceof Boolean;
+    }
+
+    private void record(String type, boolean succeeded, long start) {
+        AdapterMetrics.timer(AdapterMetrics.DB_QUERY, "type", type, "outcome", succeeded ? "success" : "failure")
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,229 @@
+package de.fraunhofer.fokus.ids.services.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.sql.*;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Database service on top of the {@link SqliteEngine}. Selects run on the read-only connections,
+ * everything else is queued to the single writer.
+ */
+public class SqliteDatabaseServiceImpl implements DatabaseService {
+    private final Logger LOGGER = LoggerFactory.getLogger(SqliteDatabaseServiceImpl.class.getName());
+    private final SqliteEngine engine;
+
+    public SqliteDatabaseServiceImpl(SqliteEngine engine, Handler<AsyncResult<DatabaseService>> readyHandler) {
+        this.engine = engine;
+        readyHandler.handle(Future.succeededFuture(this));
+    }
+
+    @Override
+    public DatabaseService query(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        SqliteEngine.Work<List<JsonObject>> work = connection -> {
+            try (PreparedStatement statement = prepare(connection, query, params)) {
+                if (!statement.execute()) {
+                    return new ArrayList<>();
+                }
+                try (ResultSet resultSet = statement.getResultSet()) {
+                    return rows(resultSet);
+                }
+            }
+        };
+        if (isRead(query)) {
+            engine.read(work, logged("Query", resultHandler));
+        } else {
+            engine.write(work, logged("Query", resultHandler));
+        }
+        return this;
+    }
+
+    @Override
+    public DatabaseService update(String query, JsonArray params, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        engine.write(connection -> {
+            try (PreparedStatement statement = prepare(connection, query, params)) {
+                LOGGER.debug("No. of rows updated: " + statement.executeUpdate());
+                return new ArrayList<>();
+            }
+        }, logged("Update", resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService batchWithParams(String query, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler) {
+        engine.write(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                for (JsonArray row : params) {
+                    bind(statement, row);
+                    statement.addBatch();
+                }
+                return counts(statement.executeBatch());
+            }
+        }, logged("Transaction", resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService batch(List<String> statements, Handler<AsyncResult<List<Integer>>> resultHandler) {
+        engine.write(connection -> {
+            List<Integer> counts = new ArrayList<>();
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : statements) {
+                    statement.execute(sql);
+                    counts.add(statement.getUpdateCount());
+                }
+            }
+            return counts;
+        }, logged("Transaction", resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService transaction(List<String> queries, List<JsonArray> params, Handler<AsyncResult<List<Integer>>> resultHandler) {
+        engine.write(connection -> {
+            List<Integer> counts = new ArrayList<>();
+            for (int i = 0; i < queries.size(); i++) {
+                try (PreparedStatement statement = prepare(connection, queries.get(i), params.get(i))) {
+                    counts.add(statement.executeUpdate());
+                }
+            }
+            return counts;
+        }, logged("Transaction", resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService findAccessUrl(String datasetId, String distributionId, Handler<AsyncResult<String>> resultHandler) {
+        engine.read(connection -> {
+            PreparedStatement statement = engine.prepare(connection, AccessInformationSql.FIND_URL);
+            statement.setString(1, datasetId);
+            statement.setString(2, distributionId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }, logged("Query", resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService insertAccessInformation(String datasetId, Map<String, String> distributionUrls, Handler<AsyncResult<Integer>> resultHandler) {
+        if (distributionUrls.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture(0));
+            return this;
+        }
+        engine.write(connection -> {
+            PreparedStatement statement = engine.prepare(connection, AccessInformationSql.INSERT);
+            Timestamp now = Timestamp.from(Instant.now());
+            for (Map.Entry<String, String> distributionUrl : distributionUrls.entrySet()) {
+                statement.setTimestamp(1, now);
+                statement.setTimestamp(2, now);
+                statement.setString(3, datasetId);
+                statement.setString(4, distributionUrl.getKey());
+                statement.setString(5, distributionUrl.getValue());
+                statement.addBatch();
+            }
+            return Arrays.stream(statement.executeBatch()).sum();
+        }, logged("Transaction", resultHandler));
+        return this;
+    }
+
+    @Override
+    public DatabaseService deleteAccessInformation(String datasetId, Handler<AsyncResult<Integer>> resultHandler) {
+        engine.write(connection -> {
+            PreparedStatement statement = engine.prepare(connection, AccessInformationSql.DELETE_BY_DATASET);
+            statement.setString(1, datasetId);
+            return statement.executeUpdate();
+        }, logged("Update", resultHandler));
+        return this;
+    }
+
+    private <T> Handler<AsyncResult<T>> logged(String operation, Handler<AsyncResult<T>> resultHandler) {
+        return result -> {
+            if (result.failed()) {
+                LOGGER.error(operation + " failed.", result.cause());
+                resultHandler.handle(Future.failedFuture(result.cause().toString()));
+            } else {
+                resultHandler.handle(result);
+            }
+        };
+    }
+
+    private boolean isRead(String query) {
+        String statement = query.trim().toUpperCase();
+        return statement.startsWith("SELECT") || statement.startsWith("WITH");
+    }
+
+    private PreparedStatement prepare(Connection connection, String query, JsonArray params) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(query);
+        try {
+            bind(statement, params);
+        } catch (SQLException e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    /**
+     * Binds the parameters like the JDBC client did before, in particular timestamps, which arrive as ISO-8601
+     * strings after passing the event bus, are stored as epoch milliseconds.
+     */
+    static void bind(PreparedStatement statement, JsonArray params) throws SQLException {
+        if (params == null) {
+            return;
+        }
+        for (int i = 0; i < params.size(); i++) {
+            Object value = params.getValue(i);
+            if (value instanceof Instant) {
+                statement.setTimestamp(i + 1, Timestamp.from((Instant) value));
+            } else if (value instanceof String && isTimestamp((String) value)) {
+                statement.setTimestamp(i + 1, Timestamp.from(Instant.parse((String) value)));
+            } else {
+                statement.setObject(i + 1, value);
+            }
+        }
+    }
+
+    private static boolean isTimestamp(String value) {
+        if (value.length() < 20 || value.charAt(4) != '-' || value.charAt(10) != 'T') {
+            return false;
+        }
+        try {
+            Instant.parse(value);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    static List<JsonObject> rows(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        List<JsonObject> rows = new ArrayList<>();
+        while (resultSet.next()) {
+            JsonObject row = new JsonObject();
+            for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                row.put(metaData.getColumnLabel(column), resultSet.getObject(column));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static List<Integer> counts(int[] updateCounts) {
+        return Arrays.stream(updateCounts)
+                .boxed()
+                .collect(Collectors.toList());
+    }
+}
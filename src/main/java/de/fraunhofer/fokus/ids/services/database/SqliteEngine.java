@@ -0,0 +1,293 @@
+package de.fraunhofer.fokus.ids.services.database;
+
+import de.fraunhofer.fokus.ids.AdapterMetrics;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.sqlite.SQLiteConfig;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes work against a single SQLite file without lock contention. All writes are queued to one writer thread
+ * that owns the only writable connection and commits everything queued at the same time in one transaction
+ * (group commit). Every write runs in its own savepoint, so a failing write is rolled back without affecting the
+ * others of its group. Reads run in parallel on a small pool of read-only connections, which in WAL mode never
+ * block and are never blocked by the writer.
+ */
+public class SqliteEngine {
+
+    private final Logger LOGGER = LoggerFactory.getLogger(SqliteEngine.class.getName());
+
+    private static final int MAX_GROUP_SIZE = 256;
+    private static final int BUSY_TIMEOUT = 5000;
+
+    /**
+     * Unit of work executed on a connection of the engine.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T execute(Connection connection) throws SQLException;
+    }
+
+    private final Vertx vertx;
+    private final String url;
+    private final int readConnections;
+    private final BlockingQueue<Task<?>> writeQueue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Connection> idleReaders = new LinkedBlockingQueue<>();
+    private final List<Connection> readers = new ArrayList<>();
+    private final Map<Connection, Map<String, PreparedStatement>> statementCache = new ConcurrentHashMap<>();
+    private ExecutorService readExecutor;
+    private Thread writerThread;
+    private Connection writer;
+    private volatile boolean running;
+
+    /**
+     * @param path            path of the database file
+     * @param readConnections number of read-only connections, i.e. the maximum number of parallel reads
+     */
+    public SqliteEngine(Vertx vertx, String path, int readConnections) {
+        this.vertx = vertx;
+        this.url = "jdbc:sqlite:" + path;
+        this.readConnections = Math.max(1, readConnections);
+    }
+
+    /**
+     * Opens the writer connection, switches the database to WAL mode and opens the read-only connections.
+     */
+    public void start(Handler<AsyncResult<Void>> resultHandler) {
+        vertx.<Void>executeBlocking(start -> {
+            try {
+                SQLiteConfig writerConfig = new SQLiteConfig();
+                writerConfig.setJournalMode(SQLiteConfig.JournalMode.WAL);
+                writerConfig.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+                writerConfig.setBusyTimeout(BUSY_TIMEOUT);
+                writer = DriverManager.getConnection(url, writerConfig.toProperties());
+
+                SQLiteConfig readerConfig = new SQLiteConfig();
+                readerConfig.setReadOnly(true);
+                readerConfig.setBusyTimeout(BUSY_TIMEOUT);
+                for (int i = 0; i < readConnections; i++) {
+                    Connection reader = DriverManager.getConnection(url, readerConfig.toProperties());
+                    readers.add(reader);
+                    idleReaders.add(reader);
+                }
+
+                running = true;
+                AtomicInteger readerThreads = new AtomicInteger();
+                readExecutor = Executors.newFixedThreadPool(readConnections, runnable -> {
+                    Thread thread = new Thread(runnable, "sqlite-reader-" + readerThreads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                writerThread = new Thread(this::writeLoop, "sqlite-writer");
+                writerThread.setDaemon(true);
+                writerThread.start();
+                LOGGER.info("SQLite engine started on " + url + " with " + readConnections + " read connections.");
+                start.complete();
+            } catch (SQLException e) {
+                closeConnections();
+                start.fail(e);
+            }
+        }, resultHandler);
+    }
+
+    /**
+     * Executes read-only work on one of the read connections.
+     */
+    public <T> void read(Work<T> work, Handler<AsyncResult<T>> resultHandler) {
+        Task<T> task = new Task<>("read", work, resultHandler);
+        if (!running) {
+            task.complete(Future.failedFuture("SQLite engine is not running."));
+            return;
+        }
+        try {
+            readExecutor.execute(() -> {
+                task.started();
+                Connection connection = idleReaders.poll();
+                try {
+                    task.complete(Future.succeededFuture(work.execute(connection)));
+                } catch (SQLException | RuntimeException e) {
+                    task.complete(Future.failedFuture(e));
+                } finally {
+                    idleReaders.add(connection);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            task.complete(Future.failedFuture(e));
+        }
+    }
+
+    /**
+     * Queues work for the writer thread. The result is delivered once the transaction containing the work is committed.
+     */
+    public <T> void write(Work<T> work, Handler<AsyncResult<T>> resultHandler) {
+        Task<T> task = new Task<>("write", work, resultHandler);
+        if (!running) {
+            task.complete(Future.failedFuture("SQLite engine is not running."));
+            return;
+        }
+        writeQueue.add(task);
+    }
+
+    /**
+     * Returns a statement prepared once per connection and reused afterwards, with its parameters and batch cleared.
+     * Only meant for a fixed set of statements; the statement must not be closed by the caller.
+     */
+    public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        // a connection is only used by one thread at a time, so the statements of a connection need no locking
+        Map<String, PreparedStatement> statements = statementCache.computeIfAbsent(connection, c -> new HashMap<>());
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+            statement.clearBatch();
+        }
+        return statement;
+    }
+
+    public void close(Handler<AsyncResult<Void>> resultHandler) {
+        running = false;
+        vertx.<Void>executeBlocking(close -> {
+            if (writerThread != null) {
+                writerThread.interrupt();
+                try {
+                    writerThread.join(BUSY_TIMEOUT);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (readExecutor != null) {
+                readExecutor.shutdown();
+            }
+            List<Task<?>> pending = new ArrayList<>();
+            writeQueue.drainTo(pending);
+            pending.forEach(task -> task.complete(Future.failedFuture("SQLite engine closed.")));
+            closeConnections();
+            close.complete();
+        }, resultHandler);
+    }
+
+    private void writeLoop() {
+        List<Task<?>> group = new ArrayList<>();
+        while (running) {
+            try {
+                group.add(writeQueue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            writeQueue.drainTo(group, MAX_GROUP_SIZE - 1);
+            AdapterMetrics.registry().summary(AdapterMetrics.DB_WRITE_GROUP_SIZE).record(group.size());
+            writeGroup(group);
+            group.clear();
+        }
+    }
+
+    private void writeGroup(List<Task<?>> group) {
+        List<AsyncResult<?>> results = new ArrayList<>(group.size());
+        try (Statement savepoints = writer.createStatement()) {
+            writer.setAutoCommit(false);
+            for (Task<?> task : group) {
+                task.started();
+                savepoints.execute("SAVEPOINT write_task");
+                try {
+                    results.add(Future.succeededFuture(task.work.execute(writer)));
+                    savepoints.execute("RELEASE write_task");
+                } catch (SQLException | RuntimeException e) {
+                    savepoints.execute("ROLLBACK TO write_task");
+                    savepoints.execute("RELEASE write_task");
+                    results.add(Future.failedFuture(e));
+                }
+            }
+            writer.commit();
+        } catch (SQLException e) {
+            LOGGER.error("Group commit of " + group.size() + " writes failed.", e);
+            rollback();
+            group.forEach(task -> task.complete(Future.failedFuture(e)));
+            return;
+        }
+        for (int i = 0; i < group.size(); i++) {
+            complete(group.get(i), results.get(i));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void complete(Task<T> task, AsyncResult<?> result) {
+        task.complete((AsyncResult<T>) result);
+    }
+
+    private void rollback() {
+        try {
+            writer.rollback();
+        } catch (SQLException e) {
+            LOGGER.error("Rollback failed.", e);
+        }
+    }
+
+    private void closeConnections() {
+        List<Connection> connections = new ArrayList<>(readers);
+        if (writer != null) {
+            connections.add(writer);
+        }
+        for (Connection connection : connections) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.error("Connection could not be closed.", e);
+            }
+        }
+    }
+
+    private static final class Task<T> {
+        private final String type;
+        private final Work<T> work;
+        private final Handler<AsyncResult<T>> resultHandler;
+        private final Context context;
+        private final long queued = System.nanoTime();
+        private long started;
+
+        private Task(String type, Work<T> work, Handler<AsyncResult<T>> resultHandler) {
+            this.type = type;
+            this.work = work;
+            this.resultHandler = resultHandler;
+            this.context = Vertx.currentContext();
+        }
+
+        private void started() {
+            started = System.nanoTime();
+            AdapterMetrics.timer(AdapterMetrics.DB_CONNECTION_WAIT, "outcome", "success")
+                    .record(started - queued, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Hands the result back to the Vert.x context that submitted the task.
+         */
+        private void complete(AsyncResult<T> result) {
+            if (started > 0) {
+                AdapterMetrics.timer(AdapterMetrics.DB_QUERY, "type", type, "outcome", result.succeeded() ? "success" : "failure")
+                        .record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+            if (context != null) {
+                context.runOnContext(v -> resultHandler.handle(result));
+            } else {
+                resultHandler.handle(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package de.fraunhofer.fokus.ids.services.zenodo;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.JsonEvent;
+import io.vertx.core.parsetools.JsonParser;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Incrementally parses a Zenodo record response and keeps only the fields the adapter maps into
+ * datasets and distributions, plus links.latest which the record sync follows to new versions. The response body
+ * is never buffered as a whole, the "files" array is walked one entry at a time and every entry is reduced to key,
+ * type, size and links.self.
+ */
+public class ZenodoRecordParser implements WriteStream<Buffer> {
+
+    private final JsonParser parser = JsonParser.newParser();
+    private final Promise<JsonObject> result = Promise.promise();
+    private final JsonObject record = new JsonObject();
+    private final JsonArray files = new JsonArray();
+    private boolean started;
+    private int arrayDepth;
+    private boolean inFiles;
+
+    public ZenodoRecordParser() {
+        parser.handler(this::handle);
+        parser.exceptionHandler(result::tryFail);
+        parser.endHandler(v -> {
+            if (started) {
+                result.tryComplete(record.put("files", files));
+            } else {
+                result.tryComplete();
+            }
+        });
+    }
+
+    /**
+     * @return the reduced record once the body has been parsed completely, null if the body was empty
+     */
+    public Future<JsonObject> result() {
+        return result.future();
+    }
+
+    private void handle(JsonEvent event) {
+        switch (event.type()) {
+            case START_OBJECT:
+                // the root object is the only object delivered as events, all nested objects arrive as values
+                started = true;
+                parser.objectValueMode();
+                break;
+            case START_ARRAY:
+                if (arrayDepth++ == 0 && "files".equals(event.fieldName())) {
+                    inFiles = true;
+                }
+                break;
+            case END_ARRAY:
+                if (--arrayDepth == 0) {
+                    inFiles = false;
+                }
+                break;
+            case VALUE:
+                if (inFiles && arrayDepth == 1 && event.isObject()) {
+                    files.add(reduceFile(event.objectValue()));
+                } else if (arrayDepth == 0 && event.fieldName() != null) {
+                    handleField(event);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void handleField(JsonEvent event) {
+        switch (event.fieldName()) {
+            case "id":
+            case "doi":
+                record.put(event.fieldName(), event.value());
+                break;
+            case "metadata":
+                if (event.isObject()) {
+                    record.put("metadata", reduceMetadata(event.objectValue()));
+                }
+                break;
+            case "links":
+                if (event.isObject() && event.objectValue().containsKey("latest")) {
+                    record.put("links", new JsonObject().put("latest", event.objectValue().getValue("latest")));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private JsonObject reduceMetadata(JsonObject metadata) {
+        JsonObject reduced = new JsonObject();
+        for (String field : new String[]{"title", "description", "version", "doi", "access_right", "keywords"}) {
+            if (metadata.containsKey(field)) {
+                reduced.put(field, metadata.getValue(field));
+            }
+        }
+        if (metadata.getValue("license") instanceof JsonObject && metadata.getJsonObject("license").containsKey("id")) {
+            reduced.put("license", new JsonObject().put("id", metadata.getJsonObject("license").getValue("id")));
+        }
+        if (metadata.getValue("creators") instanceof JsonArray) {
+            JsonArray creators = new JsonArray();
+            metadata.getJsonArray("creators").stream()
+                    .filter(creator -> creator instanceof JsonObject)
+                    .forEach(creator -> creators.add(new JsonObject().put("name", ((JsonObject) creator).getValue("name"))));
+            reduced.put("creators", creators);
+        }
+        return reduced;
+    }
+
+    private JsonObject reduceFile(JsonObject file) {
+        JsonObject reduced = new JsonObject();
+        for (String field : new String[]{"key", "type", "size"}) {
+            if (file.containsKey(field)) {
+                reduced.put(field, file.getValue(field));
+            }
+        }
+        if (file.getValue("links") instanceof JsonObject && file.getJsonObject("links").containsKey("self")) {
+            reduced.put("links", new JsonObject().put("self", file.getJsonObject("links").getValue("self")));
+        }
+        return reduced;
+    }
+
+    @Override
+    public WriteStream<Buffer> exceptionHandler(Handler<Throwable> handler) {
+        return this;
+    }
+
+    @Override
+    public WriteStream<Buffer> write(Buffer data) {
+        return write(data, null);
+    }
+
+    @Override
+    public WriteStream<Buffer> write(Buffer data, Handler<AsyncResult<Void>> handler) {
+        try {
+            parser.handle(data);
+        } catch (RuntimeException e) {
+            result.tryFail(e);
+        }
+        if (handler != null) {
+            handler.handle(result.future().failed() ? Future.failedFuture(result.future().cause()) : Future.succeededFuture());
+        }
+        return this;
+    }
+
+    @Override
+    public void end() {
+        end((Handler<AsyncResult<Void>>) null);
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+        try {
+            parser.end();
+        } catch (RuntimeException e) {
+            result.tryFail(e);
+        }
+        if (handler != null) {
+            handler.handle(result.future().failed() ? Future.failedFuture(result.future().cause()) : Future.succeededFuture());
+        }
+    }
+
+    @Override
+    public WriteStream<Buffer> setWriteQueueMaxSize(int maxSize) {
+        return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        return false;
+    }
+
+    @Override
+    public WriteStream<Buffer> drainHandler(Handler<Void> handler) {
+        return this;
+    }
+}
@@ -1,5 +1,6 @@
 package de.fraunhofer.fokus.ids.services.zenodo;
 
+import de.fraunhofer.fokus.ids.UpstreamResilience;
 import io.vertx.codegen.annotations.Fluent;
 import io.vertx.codegen.annotations.GenIgnore;
 import io.vertx.codegen.annotations.ProxyGen;
@@ -17,9 +18,19 @@ public interface ZenodoService {
     @Fluent
     ZenodoService query(JsonObject dataSource, String recordId, String accessToken, Handler<AsyncResult<JsonObject>> resultHandler);
 
+    /**
+     * Retrieves one page of record ids from the Zenodo search API.
+     *
+     * @param search search parameters, "query" (Elasticsearch query string) and/or "community" (community identifier)
+     * @param page   1-based result page
+     * @return JSON object with the "recordIds" of the page and "hasNext" indicating whether further pages exist
+     */
+    @Fluent
+    ZenodoService search(JsonObject dataSource, JsonObject search, int page, String accessToken, Handler<AsyncResult<JsonObject>> resultHandler);
+
     @GenIgnore
-    static ZenodoService create(WebClient webClient, Handler<AsyncResult<ZenodoService>> readyHandler) {
-        return new ZenodoServiceImpl(webClient, readyHandler);
+    static ZenodoService create(WebClient webClient, UpstreamResilience resilience, int recordCacheSize, Handler<AsyncResult<ZenodoService>> readyHandler) {
+        return new ZenodoServiceImpl(webClient, resilience, recordCacheSize, readyHandler);
     }
 
     @GenIgnore
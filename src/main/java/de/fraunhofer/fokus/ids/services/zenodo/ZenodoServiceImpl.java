@@ -1,47 +1,252 @@
 package de.fraunhofer.fokus.ids.services.zenodo;
 
-import de.fraunhofer.fokus.ids.persistence.entities.DataSource;
+import de.fraunhofer.fokus.ids.AdapterMetrics;
+import de.fraunhofer.fokus.ids.UpstreamResilience;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
-import io.vertx.core.json.Json;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpRequest;
+import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.client.predicate.ResponsePredicate;
+import io.vertx.ext.web.client.predicate.ResponsePredicateResult;
+import io.vertx.ext.web.codec.BodyCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
 public class ZenodoServiceImpl implements ZenodoService {
 
     private static final Logger log = LoggerFactory.getLogger(ZenodoServiceImpl.class);
+
+    private static final ResponsePredicate SC_SUCCESS_OR_NOT_MODIFIED = ResponsePredicate.create(response ->
+            (response.statusCode() >= 200 && response.statusCode() < 300) || response.statusCode() == 304
+                    ? ResponsePredicateResult.success()
+                    : ResponsePredicateResult.failure("Response status code " + response.statusCode() + " is not between 200 and 300 or 304"));
+
+    private static final int SEARCH_PAGE_SIZE = 100;
+
     private final WebClient webClient;
+    private final UpstreamResilience resilience;
+    private final Map<String, CachedRecord> recordCache;
 
-    public ZenodoServiceImpl(WebClient webClient, Handler<AsyncResult<ZenodoService>> readyHandler) {
+    /**
+     * @param resilience      retries and circuit breaker applied to every call
+     * @param recordCacheSize maximum number of Zenodo records kept for conditional revalidation, 0 disables the cache
+     */
+    public ZenodoServiceImpl(WebClient webClient, UpstreamResilience resilience, int recordCacheSize, Handler<AsyncResult<ZenodoService>> readyHandler) {
         this.webClient = webClient;
+        this.resilience = resilience;
+        this.recordCache = new LinkedHashMap<String, CachedRecord>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedRecord> eldest) {
+                return size() > recordCacheSize;
+            }
+        };
         readyHandler.handle(Future.succeededFuture(this));
     }
 
     @Override
     public ZenodoService query(JsonObject dataSource, String recordId, String accessToken, Handler<AsyncResult<JsonObject>> resultHandler) {
-        String url = Json.decodeValue(dataSource.toString(), DataSource.class)
-                .getData()
-                .getString("zenodoApiUrl", "https://zenodo.org/api/records");
+        String url = apiUrl(dataSource);
 
-        url = url.endsWith("/")
-                ? url
-                : url + "/";
+        String cacheKey = url + recordId + "#" + tokenScope(accessToken);
+
+        resilience.execute(url, () -> Future.<JsonObject>future(attempt -> fetchRecord(url, recordId, accessToken, cacheKey, attempt)))
+                .onComplete(resultHandler);
+
+        return this;
+    }
 
-        webClient.getAbs(url + recordId)
-                .addQueryParam("access_token", accessToken)
-                .expect(ResponsePredicate.SC_SUCCESS)
-                .send(response -> {
-                    if (response.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(response.result().bodyAsJsonObject()));
+    private void fetchRecord(String url, String recordId, String accessToken, String cacheKey, Handler<AsyncResult<JsonObject>> resultHandler) {
+        CachedRecord cachedRecord = getCachedRecord(cacheKey);
+
+        ZenodoRecordParser parser = new ZenodoRecordParser();
+        CallTimer callTimer = new CallTimer("record");
+        HttpRequest<Void> request = webClient.getAbs(url + recordId)
+                .expect(callTimer.predicate())
+                .expect(UpstreamResilience.RETRYABLE_STATUS)
+                .expect(SC_SUCCESS_OR_NOT_MODIFIED)
+                .as(BodyCodec.pipe(parser));
+
+        if (accessToken != null) {
+            request.addQueryParam("access_token", accessToken);
+        }
+
+        if (cachedRecord != null) {
+            if (cachedRecord.etag != null) {
+                request.putHeader(HttpHeaders.IF_NONE_MATCH.toString(), cachedRecord.etag);
+            }
+            if (cachedRecord.lastModified != null) {
+                request.putHeader(HttpHeaders.IF_MODIFIED_SINCE.toString(), cachedRecord.lastModified);
+            }
+        }
+
+        request.send(response -> {
+            if (response.failed()) {
+                callTimer.failed();
+                resultHandler.handle(Future.failedFuture(response.cause()));
+            } else if (response.result().statusCode() == 304 && cachedRecord != null) {
+                log.debug("Record {} not modified, serving cached copy.", recordId);
+                // callers may change the record, and the local proxy does not copy it like the event bus did
+                resultHandler.handle(Future.succeededFuture(cachedRecord.record.copy()));
+            } else {
+                parser.result().onComplete(record -> {
+                    if (record.succeeded() && record.result() != null) {
+                        cacheRecord(cacheKey, response.result(), record.result());
+                        resultHandler.handle(Future.succeededFuture(record.result().copy()));
                     } else {
-                        resultHandler.handle(Future.failedFuture(response.cause()));
+                        resultHandler.handle(Future.failedFuture(record.failed() ? record.cause() : new IllegalStateException("Empty response for record " + recordId)));
                     }
                 });
+            }
+        });
+    }
+
+    @Override
+    public ZenodoService search(JsonObject dataSource, JsonObject search, int page, String accessToken, Handler<AsyncResult<JsonObject>> resultHandler) {
+        String url = apiUrl(dataSource);
+
+        resilience.execute(url, () -> Future.<JsonObject>future(attempt -> fetchSearchPage(url, search, page, accessToken, attempt)))
+                .onComplete(resultHandler);
 
         return this;
     }
+
+    private void fetchSearchPage(String url, JsonObject search, int page, String accessToken, Handler<AsyncResult<JsonObject>> resultHandler) {
+        CallTimer callTimer = new CallTimer("search");
+        HttpRequest<Buffer> request = webClient.getAbs(url.substring(0, url.length() - 1))
+                .addQueryParam("page", String.valueOf(page))
+                .addQueryParam("size", String.valueOf(SEARCH_PAGE_SIZE))
+                .addQueryParam("sort", "mostrecent")
+                .expect(callTimer.predicate())
+                .expect(UpstreamResilience.RETRYABLE_STATUS)
+                .expect(ResponsePredicate.SC_SUCCESS);
+
+        if (accessToken != null) {
+            request.addQueryParam("access_token", accessToken);
+        }
+        if (search.getString("query") != null) {
+            request.addQueryParam("q", search.getString("query"));
+        }
+        if (search.getString("community") != null) {
+            request.addQueryParam("communities", search.getString("community"));
+        }
+
+        request.send(response -> {
+            if (response.succeeded()) {
+                JsonObject hits = response.result().bodyAsJsonObject().getJsonObject("hits", new JsonObject());
+                JsonArray recordIds = new JsonArray();
+                hits.getJsonArray("hits", new JsonArray()).stream()
+                        .map(hit -> ((JsonObject) hit).getValue("id"))
+                        .filter(Objects::nonNull)
+                        .forEach(id -> recordIds.add(id.toString()));
+                long total = hits.getLong("total", 0L);
+                resultHandler.handle(Future.succeededFuture(new JsonObject()
+                        .put("recordIds", recordIds)
+                        .put("hasNext", recordIds.size() == SEARCH_PAGE_SIZE && (long) page * SEARCH_PAGE_SIZE < total)));
+            } else {
+                callTimer.failed();
+                resultHandler.handle(Future.failedFuture(response.cause()));
+            }
+        });
+    }
+
+    private String apiUrl(JsonObject dataSource) {
+        String url = dataSource.getJsonObject("data", new JsonObject())
+                .getString("zenodoApiUrl", "https://zenodo.org/api/records");
+
+        return url.endsWith("/")
+                ? url
+                : url + "/";
+    }
+
+    private synchronized CachedRecord getCachedRecord(String cacheKey) {
+        return recordCache.get(cacheKey);
+    }
+
+    private synchronized void cacheRecord(String cacheKey, HttpResponse<Void> response, JsonObject record) {
+        String etag = response.getHeader(HttpHeaders.ETAG.toString());
+        String lastModified = response.getHeader(HttpHeaders.LAST_MODIFIED.toString());
+        if (record != null && (etag != null || lastModified != null)) {
+            recordCache.put(cacheKey, new CachedRecord(etag, lastModified, record));
+        } else {
+            recordCache.remove(cacheKey);
+        }
+    }
+
+    /**
+     * Records are cached per access token since restricted records may only be visible to some tokens.
+     * Only a hash of the token is kept in memory.
+     */
+    private String tokenScope(String accessToken) {
+        if (accessToken == null) {
+            return "";
+        }
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(accessToken.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class CachedRecord {
+        private final String etag;
+        private final String lastModified;
+        private final JsonObject record;
+
+        private CachedRecord(String etag, String lastModified, JsonObject record) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Records the latency of a Zenodo call until its response headers arrived, tagged with the status code,
+     * or with "error" if no response was received at all.
+     */
+    private static final class CallTimer {
+        private final String operation;
+        private final long start = System.nanoTime();
+        private boolean responded;
+
+        private CallTimer(String operation) {
+            this.operation = operation;
+        }
+
+        /**
+         * @return predicate accepting every response, it must be added before the predicates checking the status code
+         */
+        private ResponsePredicate predicate() {
+            return ResponsePredicate.create(response -> {
+                responded = true;
+                record(String.valueOf(response.statusCode()));
+                return ResponsePredicateResult.success();
+            });
+        }
+
+        private void failed() {
+            if (!responded) {
+                record("error");
+            }
+        }
+
+        private void record(String status) {
+            AdapterMetrics.timer(AdapterMetrics.ZENODO_REQUESTS, "operation", operation, "status", status)
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
 }
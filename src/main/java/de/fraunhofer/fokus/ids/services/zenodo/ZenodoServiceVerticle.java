@@ -1,10 +1,15 @@
 package de.fraunhofer.fokus.ids.services.zenodo;
 
 import de.fraunhofer.fokus.ids.ApplicationConfig;
+import de.fraunhofer.fokus.ids.LocalServices;
+import de.fraunhofer.fokus.ids.UpstreamClients;
+import de.fraunhofer.fokus.ids.UpstreamResilience;
+import io.vertx.config.ConfigRetriever;
+import io.vertx.config.ConfigRetrieverOptions;
+import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Promise;
 import io.vertx.ext.web.client.WebClient;
-import io.vertx.ext.web.client.WebClientOptions;
 import io.vertx.serviceproxy.ServiceBinder;
 
 
@@ -12,19 +17,37 @@ public class ZenodoServiceVerticle extends AbstractVerticle {
 
     @Override
     public void start(Promise<Void> startPromise) {
-        WebClientOptions options = new WebClientOptions().setTrustAll(true);
-        WebClient webClient = WebClient.create(vertx, options);
-        ZenodoService.create(webClient, ready -> {
-            if (ready.succeeded()) {
-                ServiceBinder binder = new ServiceBinder(vertx);
-                binder
-                        .setAddress(ApplicationConfig.ZENODO_SERVICE)
-                        .register(ZenodoService.class, ready.result());
-                startPromise.complete();
-            } else {
-                startPromise.fail(ready.cause());
+        ConfigRetrieverOptions configOptions = new ConfigRetrieverOptions()
+                .addStore(new ConfigStoreOptions()
+                        .setType("env"));
+
+        ConfigRetriever.create(vertx, configOptions).getConfig(ar -> {
+            if (ar.failed()) {
+                startPromise.fail(ar.cause());
+                return;
             }
+            WebClient webClient = WebClient.create(vertx, UpstreamClients.metadataOptions(ar.result()));
+            int recordCacheSize = ar.result().getInteger(ApplicationConfig.ENV_ZENODO_RECORD_CACHE_SIZE, ApplicationConfig.DEFAULT_ZENODO_RECORD_CACHE_SIZE);
+            ZenodoService.create(webClient, new UpstreamResilience(vertx, ar.result()), recordCacheSize, ready -> {
+                if (ready.succeeded()) {
+                    ServiceBinder binder = new ServiceBinder(vertx);
+                    binder
+                            .setAddress(ApplicationConfig.ZENODO_SERVICE)
+                            .register(ZenodoService.class, ready.result());
+                    if (ar.result().getBoolean(ApplicationConfig.ENV_LOCAL_SERVICE_CALLS, ApplicationConfig.DEFAULT_LOCAL_SERVICE_CALLS)) {
+                        LocalServices.register(vertx, ApplicationConfig.ZENODO_SERVICE, ready.result());
+                    }
+                    startPromise.complete();
+                } else {
+                    startPromise.fail(ready.cause());
+                }
+            });
         });
     }
 
+    @Override
+    public void stop() {
+        LocalServices.unregister(vertx, ApplicationConfig.ZENODO_SERVICE);
+    }
+
 }
@@ -0,0 +1,44 @@
+package de.fraunhofer.fokus.ids.services.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PgDatabaseServiceImplTest {
+
+    @Test
+    void placeholdersAreNumberedInOrder() {
+        assertEquals("INSERT INTO accessinformation (created_at, updated_at, datasetid, distributionid, url) VALUES ($1, $2, $3, $4, $5)",
+                PgDatabaseServiceImpl.placeholders(AccessInformationSql.INSERT));
+    }
+
+    @Test
+    void queryWithoutPlaceholdersIsUnchanged() {
+        assertEquals("SELECT MAX(version) AS version FROM schema_version",
+                PgDatabaseServiceImpl.placeholders("SELECT MAX(version) AS version FROM schema_version"));
+    }
+
+    @Test
+    void placeholdersInLiteralsAreKept() {
+        assertEquals("SELECT url FROM accessinformation WHERE url LIKE '%?%' AND datasetid = $1",
+                PgDatabaseServiceImpl.placeholders("SELECT url FROM accessinformation WHERE url LIKE '%?%' AND datasetid = ?"));
+    }
+
+    @Test
+    void placeholdersInEscapedLiteralsAreKept() {
+        assertEquals("SELECT 'it''s ?', $1",
+                PgDatabaseServiceImpl.placeholders("SELECT 'it''s ?', ?"));
+    }
+
+    @Test
+    void placeholdersInQuotedIdentifiersAreKept() {
+        assertEquals("SELECT \"why?\" FROM t WHERE a = $1 AND b = $2",
+                PgDatabaseServiceImpl.placeholders("SELECT \"why?\" FROM t WHERE a = ? AND b = ?"));
+    }
+
+    @Test
+    void otherQuotesInsideLiteralsDoNotEndThem() {
+        assertEquals("SELECT '\"?' FROM t WHERE a = $1",
+                PgDatabaseServiceImpl.placeholders("SELECT '\"?' FROM t WHERE a = ?"));
+    }
+}
@@ -0,0 +1,103 @@
+package de.fraunhofer.fokus.ids.services.database;
+
+import de.fraunhofer.fokus.ids.ApplicationConfig;
+import de.fraunhofer.fokus.ids.MigrationService;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.pgclient.PgConnectOptions;
+import io.vertx.pgclient.PgPool;
+import io.vertx.sqlclient.PoolOptions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Runs the migrations and the access information operations against a PostgreSQL container.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+@ExtendWith(VertxExtension.class)
+class PgDatabaseServiceRoundTripTest {
+
+    private static final String DATASET_ID = "dataset";
+    private static final String DISTRIBUTION_ID = "distribution";
+    private static final String URL = "https://zenodo.org/record/1/files/data.csv";
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:12-alpine");
+
+    private PgPool pool;
+    private DatabaseService databaseService;
+
+    @BeforeEach
+    void setUp(Vertx vertx, VertxTestContext testContext) {
+        pool = PgPool.pool(vertx, new PgConnectOptions()
+                .setHost(POSTGRES.getHost())
+                .setPort(POSTGRES.getMappedPort(PostgreSQLContainer.POSTGRESQL_PORT))
+                .setDatabase(POSTGRES.getDatabaseName())
+                .setUser(POSTGRES.getUsername())
+                .setPassword(POSTGRES.getPassword()), new PoolOptions().setMaxSize(4));
+        new PgDatabaseServiceImpl(pool, testContext.succeeding(service -> {
+            databaseService = service;
+            testContext.completeNow();
+        }));
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void concurrentMigrationsAndAccessInformationRoundTrip(VertxTestContext testContext) {
+        // two replicas starting at the same time
+        Future<Void> first = Future.future(migrate -> new MigrationService(databaseService, ApplicationConfig.DB_BACKEND_POSTGRES).migrate(migrate));
+        Future<Void> second = Future.future(migrate -> new MigrationService(databaseService, ApplicationConfig.DB_BACKEND_POSTGRES).migrate(migrate));
+
+        CompositeFuture.all(first, second)
+                .compose(migrated -> Future.<List<JsonObject>>future(query -> databaseService.query("SELECT version FROM schema_version ORDER BY version", new JsonArray(), query)))
+                .compose(versions -> {
+                    testContext.verify(() -> assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6),
+                            versions.stream().map(version -> version.getInteger("version")).collect(Collectors.toList())));
+                    return Future.<Integer>future(insert -> databaseService.insertAccessInformation(DATASET_ID, Collections.singletonMap(DISTRIBUTION_ID, URL), insert));
+                })
+                .compose(inserted -> {
+                    testContext.verify(() -> assertEquals(1, (int) inserted));
+                    return Future.<String>future(find -> databaseService.findAccessUrl(DATASET_ID, DISTRIBUTION_ID, find));
+                })
+                .compose(url -> {
+                    testContext.verify(() -> assertEquals(URL, url));
+                    // the "?" placeholders of the callers are rewritten for PostgreSQL
+                    return Future.<List<JsonObject>>future(query -> databaseService.query("SELECT url FROM accessinformation WHERE datasetid = ? AND distributionid = ?",
+                            new JsonArray().add(DATASET_ID).add(DISTRIBUTION_ID), query));
+                })
+                .compose(rows -> {
+                    testContext.verify(() -> assertEquals(Collections.singletonList(new JsonObject().put("url", URL)), rows));
+                    return Future.<Integer>future(delete -> databaseService.deleteAccessInformation(DATASET_ID, delete));
+                })
+                .compose(deleted -> {
+                    testContext.verify(() -> assertEquals(1, (int) deleted));
+                    return Future.<String>future(find -> databaseService.findAccessUrl(DATASET_ID, DISTRIBUTION_ID, find));
+                })
+                .onComplete(testContext.succeeding(url -> testContext.verify(() -> {
+                    assertNull(url);
+                    testContext.completeNow();
+                })));
+    }
+}